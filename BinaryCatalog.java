@@ -0,0 +1,394 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Compact binary form of the product catalog, read through a memory-mapped file.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * header   magic "WSMC", version, record count, record size, string table offset, index offset,
+ *          size and last-modified time of the text file the products came from (version 3)
+ * records  one fixed-width record per product (see {@link #RECORD_SIZE})
+ * strings  string count, (count + 1) offsets, UTF-8 bytes; repeated values are stored once
+ * index    record numbers sorted by the UTF-8 bytes of the product ID
+ * </pre>
+ * Opening a catalog only maps the file; products are decoded one record at a time when asked for,
+ * and {@link #findById(String)} is a binary search over the index that does not decode other records.
+ * Brands, sizes and colors are decoded once each and shared by every product that has them.
+ * <p>
+ * The shopping manager keeps a binary copy of productList.txt next to it and loads from that copy while
+ * {@link #isCurrentFor(Path)} says it still matches the text file.
+ */
+public class BinaryCatalog {
+    private static final int MAGIC = 0x57534D43; // "WSMC"
+    // Version 1 stored prices as doubles in major units; version 2 stores minor units, see Money;
+    // version 3 adds the source file's size and last-modified time to the header
+    private static final short VERSION = 3;
+    private static final int HEADER_SIZE = 48;
+    private static final int OLD_HEADER_SIZE = 32;
+    // Stamp of a catalog that was not made from a text file
+    private static final long NO_SOURCE = -1;
+
+    // type(1) + padding(3) + availableItems(4) + price(8) + id(4) + name(4) + brand/size(4) + warranty/color(4)
+    private static final int RECORD_SIZE = 32;
+
+    private static final byte TYPE_ELECTRONICS = 1;
+    private static final byte TYPE_CLOTHING = 2;
+
+    private final ByteBuffer buffer;
+    private final short version;
+    private final int headerSize;
+    private final long sourceSize;
+    private final long sourceModified;
+    private final int recordCount;
+    private final int stringCount;
+    private final int stringOffsetsStart;
+    private final int stringDataStart;
+    private final int indexStart;
+    // Brands, sizes and colors decoded so far, by string number
+    private final Map<Integer, String> attributes = new ConcurrentHashMap<>();
+
+    private BinaryCatalog(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary product catalog");
+        }
+        version = buffer.getShort(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported binary catalog version: " + buffer.getShort(4));
+        }
+        headerSize = version < 3 ? OLD_HEADER_SIZE : HEADER_SIZE;
+        sourceSize = version < 3 ? NO_SOURCE : buffer.getLong(32);
+        sourceModified = version < 3 ? NO_SOURCE : buffer.getLong(40);
+        recordCount = buffer.getInt(8);
+        if (buffer.getInt(12) != RECORD_SIZE) {
+            throw new IOException("Unexpected record size: " + buffer.getInt(12));
+        }
+        int stringTableStart = (int) buffer.getLong(16);
+        indexStart = (int) buffer.getLong(24);
+        stringCount = buffer.getInt(stringTableStart);
+        stringOffsetsStart = stringTableStart + 4;
+        stringDataStart = stringOffsetsStart + (stringCount + 1) * 4;
+    }
+
+    /**
+     * Maps a binary catalog file into memory. The file channel is closed straight away;
+     * the mapping stays valid until the catalog is garbage collected.
+     *
+     * @param path The binary catalog file.
+     * @return The opened catalog.
+     */
+    public static BinaryCatalog open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new BinaryCatalog(mapped);
+        }
+    }
+
+    /**
+     * Returns true if the catalog was made from the given text file as it is now, i.e. the file still has
+     * the size and last-modified time it had when its products were read.
+     *
+     * @param textFile The productList.txt style file.
+     */
+    public boolean isCurrentFor(Path textFile) throws IOException {
+        return sourceSize != NO_SOURCE && Files.exists(textFile) && Files.size(textFile) == sourceSize
+                && Files.getLastModifiedTime(textFile).toMillis() == sourceModified;
+    }
+
+    /**
+     * Returns the number of products in the catalog.
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Decodes the product stored in a record.
+     *
+     * @param recordNumber The record number, from 0 to size() - 1.
+     * @return The decoded product.
+     */
+    public Product get(int recordNumber) {
+        int offset = headerSize + recordNumber * RECORD_SIZE;
+        byte type = buffer.get(offset);
+        int availableItems = buffer.getInt(offset + 4);
+        long price = version == 1 ? Money.fromDouble(buffer.getDouble(offset + 8)) : buffer.getLong(offset + 8);
+        String productId = string(buffer.getInt(offset + 16));
+        String productName = string(buffer.getInt(offset + 20));
+        String attribute = attribute(buffer.getInt(offset + 24));
+        int extra = buffer.getInt(offset + 28);
+
+        if (type == TYPE_ELECTRONICS) {
+            return new Electronics(productId, productName, availableItems, price, attribute, extra);
+        }
+        return new Clothing(productId, productName, availableItems, price, attribute, attribute(extra));
+    }
+
+    /**
+     * Finds a product by ID using the sorted ID index.
+     *
+     * @param productId The ID of the product.
+     * @return The product, or null if the catalog does not contain it.
+     */
+    public Product findById(String productId) {
+        byte[] key = productId.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int recordNumber = buffer.getInt(indexStart + middle * 4);
+            int comparison = compareString(buffer.getInt(headerSize + recordNumber * RECORD_SIZE + 16), key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return get(recordNumber);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes every product into a repository sized for the catalog.
+     */
+    public ProductRepository readAll() {
+        ProductRepository products = new ProductRepository(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            products.add(get(i));
+        }
+        return products;
+    }
+
+    /**
+     * Writes products to a binary catalog file that is not tied to a text file, replacing the file if it exists.
+     *
+     * @param path     The file to write.
+     * @param products The products to write, in record order.
+     */
+    public static void write(Path path, Collection<Product> products) throws IOException {
+        write(path, products, NO_SOURCE, NO_SOURCE);
+    }
+
+    /**
+     * Writes products read from a text file to a binary catalog file, replacing the file if it exists.
+     * The file is written under a temporary name and renamed, so a reader never sees half a catalog.
+     *
+     * @param path           The file to write.
+     * @param products       The products to write, in record order.
+     * @param sourceSize     The size of the text file when the products were read from it.
+     * @param sourceModified The last-modified time of the text file then, in milliseconds.
+     */
+    public static void write(Path path, Collection<Product> products, long sourceSize, long sourceModified) throws IOException {
+        List<Product> records = new ArrayList<>(products);
+
+        // Build the string table, storing each distinct value once
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[][] refs = new int[records.size()][];
+        for (int i = 0; i < records.size(); i++) {
+            Product product = records.get(i);
+            int[] ref = new int[4];
+            ref[0] = intern(product.getProductId(), stringIds, strings);
+            ref[1] = intern(product.getProductName(), stringIds, strings);
+            if (product instanceof Electronics electronics) {
+                ref[2] = intern(electronics.getBrand(), stringIds, strings);
+                ref[3] = electronics.getWarrantyPeriod();
+            } else if (product instanceof Clothing clothing) {
+                ref[2] = intern(clothing.getSize(), stringIds, strings);
+                ref[3] = intern(clothing.getColor(), stringIds, strings);
+            }
+            refs[i] = ref;
+        }
+
+        // Sort record numbers by product ID bytes for the lookup index
+        Integer[] index = new Integer[records.size()];
+        for (int i = 0; i < index.length; i++) {
+            index[i] = i;
+        }
+        Arrays.sort(index, (a, b) -> Arrays.compareUnsigned(strings.get(refs[a][0]), strings.get(refs[b][0])));
+
+        long stringTableStart = HEADER_SIZE + (long) records.size() * RECORD_SIZE;
+        long stringBytes = 0;
+        for (byte[] string : strings) {
+            stringBytes += string.length;
+        }
+        long indexStart = stringTableStart + 4 + (strings.size() + 1) * 4L + stringBytes;
+        if (indexStart + records.size() * 4L > Integer.MAX_VALUE) {
+            throw new IOException("Catalog is too large for the binary format");
+        }
+
+        // A temporary file of its own, so two writers of the same catalog never write into each other's
+        Path target = path.toAbsolutePath();
+        Path tempFile = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream file = Files.newOutputStream(tempFile);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeShort(0);
+                out.writeInt(records.size());
+                out.writeInt(RECORD_SIZE);
+                out.writeLong(stringTableStart);
+                out.writeLong(indexStart);
+                out.writeLong(sourceSize);
+                out.writeLong(sourceModified);
+
+                for (int i = 0; i < records.size(); i++) {
+                    Product product = records.get(i);
+                    out.writeByte(product instanceof Electronics ? TYPE_ELECTRONICS : TYPE_CLOTHING);
+                    out.write(new byte[3]);
+                    out.writeInt(product.getAvailableItems());
+                    out.writeLong(product.getPrice());
+                    for (int ref : refs[i]) {
+                        out.writeInt(ref);
+                    }
+                }
+
+                out.writeInt(strings.size());
+                int offset = 0;
+                for (byte[] string : strings) {
+                    out.writeInt(offset);
+                    offset += string.length;
+                }
+                out.writeInt(offset);
+                for (byte[] string : strings) {
+                    out.write(string);
+                }
+
+                for (int recordNumber : index) {
+                    out.writeInt(recordNumber);
+                }
+            }
+            try {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Converts a productList.txt style text file to a binary catalog.
+     * If the text file repeats a product ID, the last entry wins.
+     */
+    public static void convertTextToBinary(Path textFile, Path binaryFile) throws IOException {
+        // Stamped before reading, so a change made while reading makes the binary file out of date
+        long sourceSize = Files.size(textFile);
+        long sourceModified = Files.getLastModifiedTime(textFile).toMillis();
+        ProductRepository products = new ProductRepository();
+        try (Stream<Product> textProducts = ProductFileReader.stream(textFile)) {
+            textProducts.forEach(products::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        write(binaryFile, products.getAll(), sourceSize, sourceModified);
+    }
+
+    /**
+     * Converts a binary catalog back to the productList.txt text format.
+     */
+    public static void convertBinaryToText(Path binaryFile, Path textFile) throws IOException {
+        BinaryCatalog catalog = open(binaryFile);
+        try (BufferedWriter writer = Files.newBufferedWriter(textFile)) {
+            for (int i = 0; i < catalog.size(); i++) {
+                ProductTextFormat.writeProduct(writer, catalog.get(i));
+            }
+        }
+    }
+
+    private String string(int id) {
+        int start = buffer.getInt(stringOffsetsStart + id * 4);
+        int end = buffer.getInt(stringOffsetsStart + (id + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        buffer.get(stringDataStart + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Brands, sizes and colors repeat across many products, so each one is decoded once
+    private String attribute(int id) {
+        String value = attributes.get(id);
+        if (value == null) {
+            value = string(id);
+            attributes.put(id, value);
+        }
+        return value;
+    }
+
+    /**
+     * Compares a stored string with a key byte by byte, without decoding the stored string.
+     */
+    private int compareString(int id, byte[] key) {
+        int start = stringDataStart + buffer.getInt(stringOffsetsStart + id * 4);
+        int length = stringDataStart + buffer.getInt(stringOffsetsStart + (id + 1) * 4) - start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    private static int intern(String value, Map<String, Integer> stringIds, List<byte[]> strings) {
+        // A missing value is written as the text format writes it, so both copies of a catalog read back the same
+        String key = String.valueOf(value);
+        Integer id = stringIds.get(key);
+        if (id == null) {
+            id = strings.size();
+            stringIds.put(key, id);
+            strings.add(key.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    /**
+     * Converts between productList.txt and the binary catalog format.
+     * Usage: java BinaryCatalog to-binary productList.txt productList.bin
+     *        java BinaryCatalog to-text productList.bin productList.txt
+     *
+     * @param args Command-line arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length != 3 || !(args[0].equals("to-binary") || args[0].equals("to-text"))) {
+            System.out.println("Usage: java BinaryCatalog (to-binary|to-text) <input> <output>");
+            return;
+        }
+        try {
+            if (args[0].equals("to-binary")) {
+                convertTextToBinary(Paths.get(args[1]), Paths.get(args[2]));
+            } else {
+                convertBinaryToText(Paths.get(args[1]), Paths.get(args[2]));
+            }
+            System.out.println("Converted " + args[1] + " to " + args[2]);
+        } catch (IOException e) {
+            System.err.println("Error converting catalog: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Takes a percentage off the items of a brand when the cart has at least a number of them.
+ */
+public class BrandBundleRule extends PromotionRule {
+    private final int minimumItems;
+    // In basis points, hundredths of a percent
+    private final long rate;
+
+    /**
+     * Constructor for BrandBundleRule.
+     *
+     * @param brand        The brand.
+     * @param minimumItems The number of items of the brand needed for the discount.
+     * @param percent      The percentage taken off the brand's items.
+     */
+    public BrandBundleRule(String brand, int minimumItems, double percent) {
+        super(Trigger.BRAND, brand);
+        this.minimumItems = minimumItems;
+        this.rate = Money.basisPoints(percent);
+    }
+
+    @Override
+    public long discount(ShoppingCart cart, String matchedKey) {
+        CartPricing pricing = cart.getPricing();
+        return pricing.getBrandQuantity(matchedKey) >= minimumItems ? Money.percentOf(pricing.getBrandSubtotal(matchedKey), rate) : 0;
+    }
+}
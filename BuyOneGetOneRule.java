@@ -0,0 +1,19 @@
+/**
+ * Buy one, get one free: every second item of a product is free.
+ */
+public class BuyOneGetOneRule extends PromotionRule {
+    /**
+     * Constructor for BuyOneGetOneRule.
+     *
+     * @param productId The ID of the product on offer.
+     */
+    public BuyOneGetOneRule(String productId) {
+        super(Trigger.PRODUCT, productId);
+    }
+
+    @Override
+    public long discount(ShoppingCart cart, String matchedKey) {
+        CartItem item = cart.getItem(matchedKey);
+        return item == null ? 0 : Money.times(item.getUnitPrice(), item.getQuantity() / 2);
+    }
+}
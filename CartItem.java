@@ -0,0 +1,36 @@
+/**
+ * One line of a shopping cart: a product, how many of it are in the cart, and the price
+ * of one item (in minor units, see {@link Money}) when the product was first added.
+ */
+class CartItem {
+    private final Product product;
+    private final long unitPrice;
+    private int quantity;
+
+    public CartItem(Product product, int quantity) {
+        this.product = product;
+        this.unitPrice = product.getPrice();
+        this.quantity = quantity;
+    }
+
+    // Getters and setters
+    public Product getProduct() {
+        return product;
+    }
+
+    public long getUnitPrice() {
+        return unitPrice;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public long getLineTotal() {
+        return Money.times(unitPrice, quantity);
+    }
+}
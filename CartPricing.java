@@ -0,0 +1,134 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the running totals of a shopping cart, per category, per brand and overall, in minor units
+ * (see {@link Money}), so they stay exact however many changes are made.
+ * Each add, remove or quantity change updates the totals in constant time, and reading the
+ * total never looks at the individual cart items.
+ * <p>
+ * The promotion discount is worked out by a {@link PromotionEngine} from these totals the first
+ * time it is read after the cart changes, and reused until the cart changes again.
+ */
+class CartPricing {
+    private final ShoppingCart cart;
+    private final PromotionEngine promotions;
+
+    private final Map<String, Total> categoryTotals = new HashMap<>();
+    private final Map<String, Total> brandTotals = new HashMap<>();
+    private long total;
+
+    private long discount;
+    private boolean discountValid;
+
+    /**
+     * Constructor for CartPricing.
+     *
+     * @param cart       The cart whose totals are kept.
+     * @param promotions The promotions applied to the cart.
+     */
+    public CartPricing(ShoppingCart cart, PromotionEngine promotions) {
+        this.cart = cart;
+        this.promotions = promotions;
+    }
+
+    /**
+     * Records a change in the quantity of a product in the cart.
+     *
+     * @param product       The product.
+     * @param unitPrice     The price of one item.
+     * @param quantityDelta The number of items added (positive) or removed (negative).
+     */
+    public void quantityChanged(Product product, long unitPrice, int quantityDelta) {
+        long amount = Money.times(unitPrice, quantityDelta);
+        add(categoryTotals, product.getType(), quantityDelta, amount);
+        if (product instanceof Electronics electronics && electronics.getBrand() != null) {
+            add(brandTotals, electronics.getBrand(), quantityDelta, amount);
+        }
+        total += amount;
+        discountValid = false;
+    }
+
+    /**
+     * Marks the discount as out of date after something other than the items changed,
+     * such as whether this is the customer's first purchase.
+     */
+    public void cartChanged() {
+        discountValid = false;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getDiscount() {
+        if (!discountValid) {
+            discount = promotions.evaluate(cart);
+            discountValid = true;
+        }
+        return discount;
+    }
+
+    public long getFinalTotal() {
+        return total - getDiscount();
+    }
+
+    /**
+     * Returns the categories that have items in the cart.
+     */
+    public Set<String> getCategories() {
+        return Collections.unmodifiableSet(categoryTotals.keySet());
+    }
+
+    /**
+     * Returns the brands that have items in the cart.
+     */
+    public Set<String> getBrands() {
+        return Collections.unmodifiableSet(brandTotals.keySet());
+    }
+
+    /**
+     * Returns the number of items in a category.
+     */
+    public int getQuantity(String category) {
+        Total categoryTotal = categoryTotals.get(category);
+        return categoryTotal == null ? 0 : categoryTotal.quantity;
+    }
+
+    /**
+     * Returns the total price of the items in a category, before discounts.
+     */
+    public long getSubtotal(String category) {
+        Total categoryTotal = categoryTotals.get(category);
+        return categoryTotal == null ? 0 : categoryTotal.subtotal;
+    }
+
+    public int getBrandQuantity(String brand) {
+        Total brandTotal = brandTotals.get(brand);
+        return brandTotal == null ? 0 : brandTotal.quantity;
+    }
+
+    public long getBrandSubtotal(String brand) {
+        Total brandTotal = brandTotals.get(brand);
+        return brandTotal == null ? 0 : brandTotal.subtotal;
+    }
+
+    private static void add(Map<String, Total> totals, String key, int quantityDelta, long amount) {
+        Total keyTotal = totals.computeIfAbsent(key, k -> new Total());
+        keyTotal.quantity += quantityDelta;
+        keyTotal.subtotal += amount;
+        if (keyTotal.quantity == 0) {
+            totals.remove(key);
+        }
+    }
+
+    /**
+     * Item count and subtotal of one category or brand.
+     */
+    private static class Total {
+        private int quantity;
+        private long subtotal;
+    }
+}
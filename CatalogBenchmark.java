@@ -0,0 +1,239 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongUnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of the catalog and cart hot paths, run against generated catalogs of several sizes:
+ * loading the product file, lookups by ID, listing a category, sorting the full product list
+ * (as printProductList does) and repricing a cart after a change.
+ * <p>
+ * Each benchmark runs warm-up iterations first, then measurement iterations of a fixed duration,
+ * and reports the mean time per operation with its standard deviation. Settings:
+ * <pre>
+ * java CatalogBenchmark [size ...]           catalog sizes, 10000 100000 1000000 by default
+ *   -Dbench.warmup=3 -Dbench.iterations=5    warm-up and measurement iterations
+ *   -Dbench.iterationMillis=1000             length of each iteration
+ *   -Dbench.seed=42                          seed of the generated catalogs
+ *   -Dbench.output=results.csv               save the results
+ *   -Dbench.baseline=baseline.csv            compare with saved results and exit with status 1
+ *   -Dbench.tolerance=0.25                   if any benchmark is more than 25% slower
+ * </pre>
+ * Run it with a fixed heap (e.g. -Xms2g -Xmx2g) so garbage collection behaves the same from run to run.
+ * <p>
+ * The project has no build file, so this is a plain main class compiled with the other sources rather
+ * than a separate benchmark module: {@code javac *.java && java CatalogBenchmark}.
+ */
+public class CatalogBenchmark {
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("bench.warmup", 3);
+    private static final int MEASUREMENT_ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final long ITERATION_NANOS = Long.getLong("bench.iterationMillis", 1000) * 1_000_000;
+    private static final long SEED = Long.getLong("bench.seed", CatalogGenerator.DEFAULT_SEED);
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("bench.tolerance", "0.25"));
+
+    // Number of different products in the benchmarked cart
+    private static final int CART_SIZE = 50;
+
+    // Results are folded in here so the JIT cannot drop the work being measured
+    private static long sink;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = args.length > 0
+                ? Stream.of(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10_000, 100_000, 1_000_000};
+
+        Map<String, Double> results = new LinkedHashMap<>();
+        Path directory = Files.createTempDirectory("catalog-benchmark");
+        try {
+            for (int size : sizes) {
+                Path file = directory.resolve("catalog-" + size + ".txt");
+                CatalogGenerator.write(file, size, SEED);
+                // Closed before the next size, so its threads stop and its files can be deleted
+                try (WestminsterShoppingManager manager = new WestminsterShoppingManager(file)) {
+                    benchmarkCatalog(manager, size, results);
+                }
+            }
+            benchmarkCart(results);
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+
+        String output = System.getProperty("bench.output");
+        if (output != null) {
+            saveResults(Paths.get(output), results);
+        }
+        String baseline = System.getProperty("bench.baseline");
+        if (baseline != null && !compareWithBaseline(loadResults(Paths.get(baseline)), results)) {
+            System.exit(1);
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private static void benchmarkCatalog(WestminsterShoppingManager manager, int size, Map<String, Double> results) {
+        ProductRepository catalog = manager.getCatalog();
+        Random random = new Random(SEED);
+        // Adding a product again drops the cached sorted views, so the next listing sorts from scratch
+        Product first = catalog.findById(CatalogGenerator.productId(0));
+
+        run(results, "load/" + size, i -> {
+            manager.getCatalogCache().invalidate();
+            return manager.loadProductsFromFile().size();
+        });
+        run(results, "lookupById/" + size, i ->
+                manager.findProductById(CatalogGenerator.productId(random.nextInt(size))).getAvailableItems());
+        ColumnarProductStore columns = new ColumnarProductStore(size);
+        for (Product product : catalog) {
+            columns.add(product);
+        }
+        run(results, "columnarLookupById/" + size, i ->
+                columns.findById(CatalogGenerator.productId(random.nextInt(size))).getAvailableItems());
+        run(results, "filterByCategory/" + size, i -> {
+            catalog.add(first);
+            return catalog.sortedById("Clothing").size();
+        });
+        run(results, "filterByCategoryCached/" + size, i -> catalog.sortedById("Clothing").size());
+        run(results, "sortAllById/" + size, i -> {
+            catalog.add(first);
+            return catalog.sortedById(null).size();
+        });
+        // The low-stock view: Electronics under 50 with fewer than 3 in stock
+        ProductQuery lowStock = new ProductQuery().type("Electronics").priceBelow(Money.parse("50")).availableItemsBelow(3);
+        run(results, "rangeQuery/" + size, i -> catalog.query(lowStock).size());
+        // Search-as-you-type: a brand prefix, a misspelt word, and a word plus an ID prefix
+        String[] queries = {"sam", "lptop", "jacket c00"};
+        run(results, "search/" + size, i -> catalog.search(queries[(int) (i % queries.length)], null, 50).size());
+    }
+
+    private static void benchmarkCart(Map<String, Double> results) {
+        // The shop's standard promotion, so the result does not depend on a local promotions.txt
+        PromotionEngine promotions = new PromotionEngine(List.of(new CategoryThresholdRule(PromotionRule.ANY_CATEGORY, 3, 20)));
+        ShoppingCart cart = new ShoppingCart(promotions);
+        CatalogGenerator generator = new CatalogGenerator(SEED);
+        List<String> productIds = new ArrayList<>();
+        for (int i = 0; i < CART_SIZE; i++) {
+            Product product = generator.next();
+            cart.addProduct(product, 1);
+            productIds.add(product.getProductId());
+        }
+
+        // One quantity change followed by reading the totals, as the cart window does after each add
+        run(results, "cartReprice/" + CART_SIZE, i -> {
+            String productId = productIds.get((int) (i % CART_SIZE));
+            cart.setQuantity(productId, 1 + (int) (i / CART_SIZE % 2));
+            CartPricing pricing = cart.getPricing();
+            return pricing.getTotal() + pricing.getDiscount() + pricing.getFinalTotal();
+        });
+    }
+
+    /**
+     * Runs one benchmark and records its mean time per operation.
+     */
+    private static void run(Map<String, Double> results, String name, LongUnaryOperator operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+        double[] nanosPerOperation = new double[MEASUREMENT_ITERATIONS];
+        double mean = 0;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            nanosPerOperation[i] = iteration(operation);
+            mean += nanosPerOperation[i] / MEASUREMENT_ITERATIONS;
+        }
+        double variance = 0;
+        for (double value : nanosPerOperation) {
+            variance += (value - mean) * (value - mean) / MEASUREMENT_ITERATIONS;
+        }
+        System.out.printf("%-32s %12s/op  +/- %s%n", name, formatNanos(mean), formatNanos(Math.sqrt(variance)));
+        results.put(name, mean);
+    }
+
+    /**
+     * Runs an operation for one iteration and returns the time per operation in nanoseconds.
+     * Fast operations are run in growing batches so reading the clock does not dominate.
+     */
+    private static double iteration(LongUnaryOperator operation) {
+        long operations = 0;
+        long batch = 1;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (long i = 0; i < batch; i++) {
+                sink += operation.applyAsLong(operations++);
+            }
+            elapsed = System.nanoTime() - start;
+            if (elapsed < ITERATION_NANOS / 100) {
+                batch *= 2;
+            }
+        } while (elapsed < ITERATION_NANOS);
+        return (double) elapsed / operations;
+    }
+
+    private static String formatNanos(double nanos) {
+        if (nanos >= 1e9) {
+            return String.format("%.2f s", nanos / 1e9);
+        } else if (nanos >= 1e6) {
+            return String.format("%.2f ms", nanos / 1e6);
+        } else if (nanos >= 1e3) {
+            return String.format("%.2f us", nanos / 1e3);
+        }
+        return String.format("%.1f ns", nanos);
+    }
+
+    private static void saveResults(Path path, Map<String, Double> results) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write("benchmark,nanosPerOperation\n");
+            for (Map.Entry<String, Double> result : results.entrySet()) {
+                writer.write(result.getKey() + "," + result.getValue() + "\n");
+            }
+        }
+    }
+
+    private static Map<String, Double> loadResults(Path path) throws IOException {
+        Map<String, Double> results = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            reader.readLine(); // header
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (fields.length == 2) {
+                    results.put(fields[0], Double.parseDouble(fields[1]));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Prints how each benchmark compares with the baseline.
+     *
+     * @return False if any benchmark is slower than the baseline by more than the tolerance.
+     */
+    private static boolean compareWithBaseline(Map<String, Double> baseline, Map<String, Double> results) {
+        boolean passed = true;
+        System.out.println();
+        for (String name : results.keySet()) {
+            Double before = baseline.get(name);
+            if (before == null) {
+                continue;
+            }
+            double change = results.get(name) / before - 1;
+            boolean regressed = change > TOLERANCE;
+            passed &= !regressed;
+            System.out.printf("%-32s %+7.1f%%%s%n", name, change * 100, regressed ? "  REGRESSION" : "");
+        }
+        return passed;
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic product catalogs for benchmarking. The same size and seed always give the same
+ * catalog, so results can be compared between runs and machines.
+ * <p>
+ * Products alternate between Electronics and Clothing, with IDs E0000000, C0000001, ... and brands,
+ * sizes, colors, prices and stock drawn from the seeded generator.
+ */
+public class CatalogGenerator {
+    public static final long DEFAULT_SEED = 42;
+
+    private static final String[] BRANDS = {"Samsung", "Apple", "Sony", "LG", "Dell", "HP", "Lenovo", "Asus",
+            "Acer", "Philips", "Panasonic", "Bose", "Canon", "Nikon", "Xiaomi", "Huawei"};
+    private static final String[] ELECTRONICS_NAMES = {"Phone", "Laptop", "Tablet", "Headphones", "Monitor",
+            "Camera", "Speaker", "Watch"};
+    private static final String[] CLOTHING_NAMES = {"Shirt", "Jeans", "Jacket", "Dress", "Sweater", "Shorts",
+            "Coat", "Skirt"};
+    // Only sizes the menu and importer accept, so generated catalogs are valid products
+    private static final List<String> SIZES = ProductValidator.CLOTHING_SIZES;
+    private static final String[] COLORS = {"Black", "White", "Red", "Blue", "Green", "Grey", "Navy", "Beige"};
+
+    private final Random random;
+    private int next;
+
+    /**
+     * Constructor for CatalogGenerator.
+     *
+     * @param seed The seed of the random values.
+     */
+    public CatalogGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Returns the ID the generator gives to the product at a position, e.g. for looking it up.
+     */
+    public static String productId(int index) {
+        String digits = Integer.toString(index);
+        return (index % 2 == 0 ? "E" : "C") + "0000000".substring(Math.min(7, digits.length())) + digits;
+    }
+
+    /**
+     * Generates the next product.
+     */
+    public Product next() {
+        int index = next++;
+        int availableItems = random.nextInt(50);
+        long price = 100 + random.nextInt(100_000);
+        if (index % 2 == 0) {
+            String name = ELECTRONICS_NAMES[random.nextInt(ELECTRONICS_NAMES.length)] + " " + index;
+            return new Electronics(productId(index), name, availableItems, price,
+                    BRANDS[random.nextInt(BRANDS.length)], 1 + random.nextInt(5));
+        }
+        String name = CLOTHING_NAMES[random.nextInt(CLOTHING_NAMES.length)] + " " + index;
+        return new Clothing(productId(index), name, availableItems, price,
+                SIZES.get(random.nextInt(SIZES.size())), COLORS[random.nextInt(COLORS.length)]);
+    }
+
+    /**
+     * Writes a catalog in the productList.txt format.
+     *
+     * @param path  The file to write.
+     * @param count The number of products.
+     * @param seed  The seed of the random values.
+     */
+    public static void write(Path path, int count, long seed) throws IOException {
+        CatalogGenerator generator = new CatalogGenerator(seed);
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(path), 1 << 16)) {
+            for (int i = 0; i < count; i++) {
+                ProductTextFormat.writeProduct(writer, generator.next());
+            }
+        }
+    }
+
+    /**
+     * Command-line entry point: {@code java CatalogGenerator <count> <output file> [seed]}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java CatalogGenerator <count> <output file> [seed]");
+            System.exit(1);
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        write(Paths.get(args[1]), Integer.parseInt(args[0]), seed);
+        System.out.println("Wrote " + args[0] + " products to " + args[1] + ".");
+    }
+}
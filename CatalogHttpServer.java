@@ -0,0 +1,381 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local HTTP/JSON API over the product catalog and shopping carts, served by the JDK's built-in server.
+ * <pre>
+ * GET    /api/products?category=&amp;brand=&amp;size=&amp;color=&amp;offset=&amp;limit=   products sorted by ID
+ *        &amp;minPrice=&amp;maxPrice=&amp;minStock=&amp;maxStock=                 ranges; the minimum is included, the maximum is not
+ * GET    /api/products/{id}                                      one product
+ * GET    /api/cart                                               the cart and its totals
+ * POST   /api/cart/items?productId=&amp;quantity=                     add to the cart
+ * DELETE /api/cart/items/{id}                                    remove from the cart
+ * POST   /api/cart/checkout                                      buy the cart
+ * DELETE /api/cart                                               end the session, releasing its reservations
+ * GET    /api/metrics                                            the metrics registry, as plain text
+ * </pre>
+ * Products are listed with the stock still free to reserve, so items held in carts are not offered twice.
+ * The shopper is named by the X-User header ("guest" if missing). Requests run on the shopping service's
+ * executor (virtual threads when available). Connections are kept alive, and responses larger than
+ * {@link #GZIP_THRESHOLD} bytes are gzip-compressed for clients that accept it.
+ */
+public class CatalogHttpServer {
+    private static final int DEFAULT_PORT = 8080;
+    // Smaller responses are sent as is; compressing them costs more than it saves
+    private static final int GZIP_THRESHOLD = 1024;
+    // Products returned by one listing request unless the client asks for a different limit
+    private static final int DEFAULT_LIMIT = 100;
+
+    private final ShoppingManager shoppingManager;
+    private final HttpServer server;
+
+    /**
+     * Constructor for CatalogHttpServer. The server is bound to localhost but not started.
+     *
+     * @param shoppingManager The manager holding the catalog and sessions.
+     * @param port            The port to listen on, or 0 for any free port.
+     */
+    public CatalogHttpServer(ShoppingManager shoppingManager, int port) throws IOException {
+        this.shoppingManager = shoppingManager;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/api/products", this::handleProducts);
+        server.createContext("/api/cart", this::handleCart);
+        server.createContext("/api/metrics", CatalogHttpServer::handleMetrics);
+        server.setExecutor(shoppingManager.getShoppingService().getExecutor());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting up to a second for requests in progress.
+     */
+    public void stop() {
+        server.stop(1);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleProducts(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+            } else if (path.equals("/api/products") || path.equals("/api/products/")) {
+                listProducts(exchange);
+            } else {
+                Product product = shoppingManager.findProductById(path.substring("/api/products/".length()));
+                if (product == null) {
+                    sendError(exchange, 404, "Product not found");
+                } else {
+                    StringBuilder json = new StringBuilder();
+                    appendProduct(json, product, shoppingManager.getInventory());
+                    send(exchange, 200, json);
+                }
+            }
+        } catch (RuntimeException e) {
+            sendFailure(exchange, 400, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void listProducts(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        ProductRepository catalog = shoppingManager.getCatalog();
+        int offset = Integer.parseInt(query.getOrDefault("offset", "0"));
+        int limit = Integer.parseInt(query.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)));
+        if (offset < 0 || limit < 0) {
+            sendError(exchange, 400, "offset and limit must not be negative");
+            return;
+        }
+
+        // Without conditions, page through the cached sorted view; otherwise let the indexes narrow it down
+        List<Product> products;
+        if (query.keySet().stream().allMatch(key -> key.equals("offset") || key.equals("limit") || key.equals("category"))) {
+            products = catalog.sortedById(query.get("category"));
+        } else {
+            ProductQuery productQuery = new ProductQuery().type(query.get("category")).brand(query.get("brand"))
+                    .size(query.get("size")).color(query.get("color"));
+            if (query.containsKey("minPrice")) {
+                productQuery.priceAtLeast(Money.parse(query.get("minPrice")));
+            }
+            if (query.containsKey("maxPrice")) {
+                productQuery.priceBelow(Money.parse(query.get("maxPrice")));
+            }
+            if (query.containsKey("minStock")) {
+                productQuery.availableItemsAtLeast(Integer.parseInt(query.get("minStock")));
+            }
+            if (query.containsKey("maxStock")) {
+                productQuery.availableItemsBelow(Integer.parseInt(query.get("maxStock")));
+            }
+            products = catalog.query(productQuery);
+        }
+
+        InventoryService inventory = shoppingManager.getInventory();
+        StringBuilder json = new StringBuilder("{\"products\":[");
+        int end = (int) Math.min(products.size(), (long) offset + limit);
+        for (int i = offset; i < end; i++) {
+            if (i > offset) {
+                json.append(',');
+            }
+            appendProduct(json, products.get(i), inventory);
+        }
+        int matched = products.size();
+        json.append("],\"total\":").append(matched).append('}');
+        send(exchange, 200, json);
+    }
+
+    private void handleCart(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String username = exchange.getRequestHeaders().getFirst("X-User");
+            User user = new User(username == null || username.isEmpty() ? "guest" : username, null);
+            ShoppingService shoppingService = shoppingManager.getShoppingService();
+
+            if (path.equals("/api/cart") || path.equals("/api/cart/")) {
+                if ("GET".equals(method)) {
+                    send(exchange, 200, shoppingService.withSession(user, CatalogHttpServer::cartJson));
+                } else if ("DELETE".equals(method)) {
+                    shoppingService.closeSession(user.getUsername());
+                    send(exchange, 200, new StringBuilder("{}"));
+                } else {
+                    sendError(exchange, 405, "Method not allowed");
+                }
+            } else if (path.equals("/api/cart/items") && "POST".equals(method)) {
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                String productId = query.get("productId");
+                int quantity = Integer.parseInt(query.getOrDefault("quantity", "1"));
+                if (productId == null || quantity <= 0) {
+                    sendError(exchange, 400, "productId and a positive quantity are required");
+                    return;
+                }
+                if (shoppingManager.findProductById(productId) == null) {
+                    sendError(exchange, 404, "Product not found");
+                    return;
+                }
+                StringBuilder cart = shoppingService.withSession(user,
+                        session -> session.addToCart(productId, quantity) == null ? null : cartJson(session));
+                if (cart == null) {
+                    sendError(exchange, 409, "Product is out of stock");
+                } else {
+                    send(exchange, 200, cart);
+                }
+            } else if (path.startsWith("/api/cart/items/") && "DELETE".equals(method)) {
+                String productId = path.substring("/api/cart/items/".length());
+                StringBuilder cart = shoppingService.withSession(user,
+                        session -> session.removeFromCart(productId) ? cartJson(session) : null);
+                if (cart == null) {
+                    sendError(exchange, 404, "Product not in the cart");
+                } else {
+                    send(exchange, 200, cart);
+                }
+            } else if (path.equals("/api/cart/checkout") && "POST".equals(method)) {
+                // Null for an empty cart, otherwise whether the order was placed
+                Boolean ordered = shoppingService.withSession(user,
+                        session -> session.isCartEmpty() ? null : session.checkout());
+                if (ordered == null) {
+                    sendError(exchange, 400, "The cart is empty");
+                } else if (ordered) {
+                    send(exchange, 200, new StringBuilder("{\"status\":\"ordered\"}"));
+                } else {
+                    sendError(exchange, 409, "Some products in the cart are no longer in stock");
+                }
+            } else {
+                sendError(exchange, 404, "Not found");
+            }
+        } catch (UncheckedIOException e) {
+            sendFailure(exchange, 503, "The change could not be saved, please try again");
+        } catch (RuntimeException e) {
+            sendFailure(exchange, 400, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder text = new StringBuilder();
+            MetricsRegistry.getDefault().dump(text);
+            send(exchange, 200, "text/plain; charset=utf-8", text);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Built while the session is in hand, so the cart comes from the same session the request changed
+    private static StringBuilder cartJson(ShoppingSession session) {
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        List<CartItem> items = session.getCartItems();
+        for (int i = 0; i < items.size(); i++) {
+            CartItem item = items.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"productId\":");
+            appendString(json, item.getProduct().getProductId());
+            json.append(",\"quantity\":").append(item.getQuantity())
+                    .append(",\"unitPrice\":").append(Money.format(item.getUnitPrice()))
+                    .append(",\"lineTotal\":").append(Money.format(item.getLineTotal())).append('}');
+        }
+        json.append("],\"total\":").append(Money.format(session.getTotal()))
+                .append(",\"discount\":").append(Money.format(session.getDiscount()))
+                .append(",\"finalTotal\":").append(Money.format(session.getFinalTotal())).append('}');
+        return json;
+    }
+
+    // The stock shown is what carts can still reserve, not what is on the shelf
+    private static void appendProduct(StringBuilder json, Product product, InventoryService inventory) {
+        json.append("{\"productId\":");
+        appendString(json, product.getProductId());
+        json.append(",\"name\":");
+        appendString(json, product.getProductName());
+        json.append(",\"category\":");
+        appendString(json, product.getType());
+        json.append(",\"price\":").append(Money.format(product.getPrice()));
+        json.append(",\"availableItems\":").append(inventory.getAvailable(product.getProductId()));
+        if (product instanceof Electronics electronics) {
+            json.append(",\"brand\":");
+            appendString(json, electronics.getBrand());
+            json.append(",\"warrantyPeriod\":").append(electronics.getWarrantyPeriod());
+        } else if (product instanceof Clothing clothing) {
+            json.append(",\"size\":");
+            appendString(json, clothing.getSize());
+            json.append(",\"color\":");
+            appendString(json, clothing.getColor());
+        }
+        json.append('}');
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        send(exchange, status, json.append('}'));
+    }
+
+    // A handler that fails after its response has started can only cut the response short, which the
+    // finally block does by closing the exchange
+    private static void sendFailure(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            sendError(exchange, status, message);
+        }
+    }
+
+    /**
+     * Sends a response with its length set, so the connection can be reused for the next request.
+     */
+    private static void send(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        send(exchange, status, "application/json; charset=utf-8", json);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, CharSequence content) throws IOException {
+        byte[] body = content.toString().getBytes(StandardCharsets.UTF_8);
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (body.length > GZIP_THRESHOLD && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body);
+            }
+            body = compressed.toByteArray();
+            headers.set("Content-Encoding", "gzip");
+        }
+        headers.set("Vary", "Accept-Encoding");
+
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Starts the API on localhost.
+     *
+     * @param args Optional port number (8080 by default).
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        WestminsterShoppingManager shoppingManager = new WestminsterShoppingManager();
+        CatalogHttpServer server = new CatalogHttpServer(shoppingManager, port);
+        // Finish the requests in progress, then close the manager so the log is flushed and the files released
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                shoppingManager.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the shopping manager: " + e.getMessage());
+            }
+        }, "catalog-api-shutdown"));
+        server.start();
+        System.out.println("Catalog API listening on http://localhost:" + server.getPort() + "/api/products");
+    }
+}
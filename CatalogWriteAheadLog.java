@@ -0,0 +1,358 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append-only log of catalog changes. Each add, delete, stock change or price change is one line,
+ * so a change costs a small sequential write instead of rewriting productList.txt.
+ * <p>
+ * Records are written by a single writer thread that takes everything queued since its last write,
+ * writes it in one go and forces it to disk once (group commit). The future returned by each append
+ * completes when its record is durable, or fails if the batch could not be written, in which case the
+ * batch is cut off the end of the file again.
+ * <p>
+ * The log file is locked for as long as the log is open. Checkpoints truncate the log and rewrite the
+ * product file, so a second manager on the same files would lose the first one's changes; opening the
+ * log a second time, from this process or another, fails instead.
+ */
+public class CatalogWriteAheadLog implements Closeable {
+    private static final String ADD = "ADD";
+    private static final String DELETE = "DELETE";
+    private static final String STOCK = "STOCK";
+    private static final String PRICE = "PRICE";
+
+    // Largest number of records written and forced together
+    private static final int MAX_BATCH = 1024;
+    // Time to write and force one batch, and the number of records written, see MetricsRegistry
+    private static final LatencyHistogram WRITE_TIME = MetricsRegistry.getDefault().histogram("wal.write");
+    private static final LongAdder RECORDS_WRITTEN = MetricsRegistry.getDefault().counter("wal.records");
+
+    // Logs open in this process; checked before the file is opened, because closing any channel
+    // on a locked file releases the process's lock on it on some platforms
+    private static final Set<Path> OPEN_LOGS = ConcurrentHashMap.newKeySet();
+
+    private final Path path;
+    private final Path lockedPath;
+    private final FileChannel channel;
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private volatile CompletableFuture<Void> lastAppend = CompletableFuture.completedFuture(null);
+
+    /**
+     * Opens and locks the log file, creating it if it does not exist, and starts the writer thread.
+     *
+     * @param path The log file.
+     * @throws IOException If the file cannot be opened, or another open log already holds it.
+     */
+    public CatalogWriteAheadLog(Path path) throws IOException {
+        this.path = path;
+        this.lockedPath = path.toAbsolutePath().normalize();
+        if (!OPEN_LOGS.add(lockedPath)) {
+            throw new IOException(path + " is already in use by another shopping manager");
+        }
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                channel.close();
+                throw new IOException(path + " is already in use by another shopping manager");
+            }
+            // The lock is released when the channel is closed
+            this.channel.position(channel.size());
+        } catch (IOException | RuntimeException e) {
+            OPEN_LOGS.remove(lockedPath);
+            throw e;
+        }
+        this.writerThread = new Thread(this::writeLoop, "catalog-wal-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public CompletableFuture<Void> logAdd(Product product) {
+        if (product instanceof Electronics electronics) {
+            return append(ADD, product.getType(), product.getProductId(), product.getProductName(),
+                    String.valueOf(product.getAvailableItems()), Money.format(product.getPrice()),
+                    electronics.getBrand(), String.valueOf(electronics.getWarrantyPeriod()));
+        }
+        Clothing clothing = (Clothing) product;
+        return append(ADD, product.getType(), product.getProductId(), product.getProductName(),
+                String.valueOf(product.getAvailableItems()), Money.format(product.getPrice()),
+                clothing.getSize(), clothing.getColor());
+    }
+
+    public CompletableFuture<Void> logDelete(String productId) {
+        return append(DELETE, productId);
+    }
+
+    public CompletableFuture<Void> logStockChange(String productId, int availableItems) {
+        return append(STOCK, productId, String.valueOf(availableItems));
+    }
+
+    public CompletableFuture<Void> logPriceChange(String productId, long price) {
+        return append(PRICE, productId, Money.format(price));
+    }
+
+    /**
+     * Waits until every record appended so far is on disk.
+     */
+    public void flush() throws IOException {
+        try {
+            lastAppend.join();
+        } catch (RuntimeException e) {
+            throw new IOException("Write-ahead log flush failed", e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * Empties the log once its records have been folded into a snapshot.
+     * Callers must make sure no new records are appended while this runs.
+     */
+    public synchronized void truncate() throws IOException {
+        flush();
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+    }
+
+    /**
+     * Returns true if the log holds records that are not yet in the snapshot.
+     */
+    public boolean hasRecords() throws IOException {
+        return channel.size() > 0 || !queue.isEmpty();
+    }
+
+    /**
+     * Applies every complete record in the log to a repository, in the order they were written.
+     * A torn record at the end of the file, left by a crash in the middle of a write, is cut off.
+     * Records already appended are written first, and new appends wait until the replay is done, so
+     * the writer never writes to the file while it is read or cut.
+     *
+     * @param products The repository loaded from the last snapshot.
+     * @return The number of records applied.
+     */
+    public synchronized int replay(ProductRepository products) throws IOException {
+        // A batch that failed has already been cut off the file by the writer, so only completion matters
+        lastAppend.handle((result, failure) -> null).join();
+        int applied = 0;
+        long validLength = 0;
+        long offset = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            int b;
+            while ((b = in.read()) != -1) {
+                offset++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String record = line.toString(StandardCharsets.UTF_8);
+                line.reset();
+                try {
+                    apply(record, products);
+                    applied++;
+                } catch (RuntimeException e) {
+                    System.err.println("Skipping invalid write-ahead log record at byte " + validLength + ": " + record);
+                }
+                validLength = offset;
+            }
+        }
+        if (validLength < channel.size()) {
+            channel.truncate(validLength);
+            channel.position(validLength);
+        }
+        return applied;
+    }
+
+    /**
+     * Waits for the records appended so far, stops the writer thread and closes the file, releasing its lock.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            closed = true;
+            writerThread.interrupt();
+            try {
+                channel.close();
+            } finally {
+                OPEN_LOGS.remove(lockedPath);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> append(String... fields) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Write-ahead log is closed"));
+        }
+        StringBuilder record = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                record.append('\t');
+            }
+            escape(fields[i], record);
+        }
+        record.append('\n');
+
+        PendingRecord pending = new PendingRecord(record.toString().getBytes(StandardCharsets.UTF_8));
+        synchronized (this) {
+            queue.add(pending);
+            lastAppend = pending.future;
+        }
+        return pending.future;
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            long start = System.nanoTime();
+            long batchStart = -1;
+            try {
+                batchStart = channel.position();
+                int length = 0;
+                for (PendingRecord record : batch) {
+                    length += record.bytes.length;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                for (PendingRecord record : batch) {
+                    buffer.put(record.bytes);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                WRITE_TIME.recordSince(start);
+                RECORDS_WRITTEN.add(batch.size());
+                for (PendingRecord record : batch) {
+                    record.future.complete(null);
+                }
+            } catch (IOException e) {
+                // The callers undo these changes, so a part of the batch that did reach the file must not be replayed
+                if (batchStart >= 0) {
+                    try {
+                        channel.truncate(batchStart);
+                        channel.position(batchStart);
+                    } catch (IOException truncateFailure) {
+                        e.addSuppressed(truncateFailure);
+                    }
+                }
+                for (PendingRecord record : batch) {
+                    record.future.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private static void apply(String record, ProductRepository products) {
+        String[] fields = record.split("\t", -1);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = unescape(fields[i]);
+        }
+        switch (fields[0]) {
+            case ADD:
+                int availableItems = Integer.parseInt(fields[4]);
+                long price = Money.parse(fields[5]);
+                if (fields[1].equals("Electronics")) {
+                    products.add(new Electronics(fields[2], fields[3], availableItems, price, fields[6], Integer.parseInt(fields[7])));
+                } else {
+                    products.add(new Clothing(fields[2], fields[3], availableItems, price, fields[6], fields[7]));
+                }
+                break;
+            case DELETE:
+                products.remove(fields[1]);
+                break;
+            case STOCK:
+                products.updateStock(fields[1], Integer.parseInt(fields[2]));
+                break;
+            case PRICE:
+                products.updatePrice(fields[1], Money.parse(fields[2]));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown record type: " + fields[0]);
+        }
+    }
+
+    private static void escape(String value, StringBuilder out) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * A record waiting for the writer thread, with the future completed once it is durable.
+     */
+    private static class PendingRecord {
+        private final byte[] bytes;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingRecord(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Takes a percentage off the items of a category when the cart has at least a number of items in it.
+ */
+public class CategoryThresholdRule extends PromotionRule {
+    private final int minimumItems;
+    // In basis points, hundredths of a percent
+    private final long rate;
+
+    /**
+     * Constructor for CategoryThresholdRule.
+     *
+     * @param category     The category, or "*" to apply the rule to every category separately.
+     * @param minimumItems The number of items in the category needed for the discount.
+     * @param percent      The percentage taken off the category's items.
+     */
+    public CategoryThresholdRule(String category, int minimumItems, double percent) {
+        super(Trigger.CATEGORY, category);
+        this.minimumItems = minimumItems;
+        this.rate = Money.basisPoints(percent);
+    }
+
+    @Override
+    public long discount(ShoppingCart cart, String matchedKey) {
+        CartPricing pricing = cart.getPricing();
+        return pricing.getQuantity(matchedKey) >= minimumItems ? Money.percentOf(pricing.getSubtotal(matchedKey), rate) : 0;
+    }
+}
@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Shared helpers of the check programs ({@link WalCheck} and the others next to it): plain main classes
+ * that exercise one part of the shop against temporary files and exit with status 1 if anything is wrong.
+ * The project has no build file or test framework, so they are compiled with the other sources and run
+ * one at a time: {@code javac *.java && java WalCheck}.
+ */
+final class Checks {
+    private static int failures;
+
+    private Checks() {
+    }
+
+    /**
+     * Records the outcome of one check, printing it.
+     *
+     * @param passed      Whether the check passed.
+     * @param description What was checked.
+     */
+    static synchronized void check(boolean passed, String description) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "ok      " : "FAILED  ") + description);
+    }
+
+    /**
+     * Prints a summary and exits with status 1 if any check failed.
+     *
+     * @param name The name of the check program.
+     */
+    static synchronized void finish(String name) {
+        if (failures > 0) {
+            System.out.println(name + ": " + failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println(name + ": all checks passed");
+    }
+
+    /**
+     * Deletes a temporary directory and everything in it.
+     */
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
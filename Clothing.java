@@ -2,7 +2,7 @@ class Clothing extends Product {
     private String size;
     private String color;
 
-    public Clothing(String productId, String productName, int availableItems, double price,
+    public Clothing(String productId, String productName, int availableItems, long price,
                     String size, String color) {
         super(productId, productName, availableItems, price);
         this.size = size;
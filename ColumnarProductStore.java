@@ -0,0 +1,657 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Product catalog kept in columns of primitive arrays instead of one object per product, for catalogs
+ * too large to hold as {@link Product} objects.
+ * <p>
+ * Each product is a row: its type, stock, price and the two type-specific attributes are array elements,
+ * and its ID and name are UTF-8 bytes in two shared byte pools. Brands, sizes and colors have few distinct
+ * values, so they are stored once in a dictionary and rows hold their codes. IDs are found through an
+ * open-addressing hash table of row numbers. A product costs about 70 bytes instead of about 340 as objects,
+ * and the whole catalog is a handful of large arrays, which the garbage collector does not have to trace.
+ * Rows freed by removing or replacing a product are reused by later adds, and the bytes of removed IDs and
+ * names are compacted away before a pool grows, so a catalog that keeps changing does not keep growing.
+ * <p>
+ * Products are read through flyweight views: an {@link Electronics} or {@link Clothing} whose getters read
+ * the row, created when asked for and cheap to throw away. Stock and price set through a view are written to
+ * the columns; other attributes are changed by adding the product again. Views compare equal when they show
+ * the same product. A view of a product that has since been removed or replaced throws
+ * {@link IllegalStateException}, since its row may now hold another product.
+ * <p>
+ * Adding, removing and looking up take a read-write lock, as in {@link ProductRepository}. Views read their
+ * row without locking: the arrays are replaced as a whole, through a volatile field, when they grow or are
+ * compacted, so a view always reads a complete set of columns.
+ * <p>
+ * The store stands on its own and is not the shopping manager's catalog: carts, the attribute indexes and the
+ * write-ahead log keep {@link Product} objects in a {@link ProductRepository}. It is meant for reading and
+ * checking very large product files, as {@link CatalogBenchmark} does, without holding them as objects.
+ */
+public class ColumnarProductStore implements Iterable<Product> {
+    private static final byte REMOVED = 0;
+    private static final byte ELECTRONICS = 1;
+    private static final byte CLOTHING = 2;
+
+    private volatile Columns columns;
+    // Rows handed out so far, and the products in them
+    private int rows;
+    private int liveRows;
+    // Rows freed by removals, reused before new rows are handed out
+    private int[] freeRows = new int[16];
+    private int freeCount;
+    // End of the bytes written to each pool, and how many of them belong to removed products
+    private int idEnd;
+    private int nameEnd;
+    private int idGarbage;
+    private int nameGarbage;
+
+    // Brand, size and color values, each stored once; replaced rather than changed, since views read it unlocked
+    private volatile String[] dictionary = new String[0];
+    private final Map<String, Integer> dictionaryCodes = new HashMap<>();
+
+    // Open-addressing hash table of row + 1 (0 is an empty slot), keyed by the ID bytes, probed linearly
+    private int[] idTable;
+    private int usedSlots;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ColumnarProductStore() {
+        this(16);
+    }
+
+    /**
+     * Constructor for ColumnarProductStore, sized for an expected number of products.
+     *
+     * @param expectedSize The number of products the store is expected to hold.
+     */
+    public ColumnarProductStore(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        // Product IDs are usually about 8 bytes and names about 12
+        columns = new Columns(new byte[capacity], new int[capacity], new int[capacity], new long[capacity],
+                new int[capacity], new int[capacity], new int[capacity], new int[capacity], new byte[capacity * 8],
+                new int[capacity], new int[capacity], new byte[capacity * 12]);
+        idTable = new int[tableSizeFor(capacity * 2)];
+    }
+
+    /**
+     * Reads a productList.txt style file into a new store, one product at a time, so the file's products
+     * are never all held as objects.
+     *
+     * @param path The product file.
+     * @return The loaded store.
+     */
+    public static ColumnarProductStore load(Path path) throws IOException {
+        ColumnarProductStore store = new ColumnarProductStore();
+        try (ProductFileReader reader = new ProductFileReader(path)) {
+            while (reader.hasNext()) {
+                store.add(reader.next());
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Copies a product into the store, replacing any product that already has the same ID.
+     *
+     * @param product The product to copy.
+     * @return A view of the stored product.
+     */
+    public Product add(Product product) {
+        byte[] id = product.getProductId().getBytes(StandardCharsets.UTF_8);
+        byte[] name = product.getProductName() == null ? new byte[0] : product.getProductName().getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            // Removed rows keep their slots until the table is rebuilt, so count used slots, not products
+            if ((usedSlots + 1) * 2 > idTable.length) {
+                rebuildIdTable();
+            }
+            int previous = findRow(id);
+            if (previous >= 0) {
+                free(previous);
+            }
+
+            int row = freeCount > 0 ? freeRows[--freeCount] : newRow();
+            Columns columns = makeRoom(id.length, name.length);
+            columns.availableItems[row] = product.getAvailableItems();
+            columns.prices[row] = product.getPrice();
+            byte type;
+            if (product instanceof Electronics electronics) {
+                type = ELECTRONICS;
+                columns.firstAttributes[row] = code(electronics.getBrand());
+                columns.secondAttributes[row] = electronics.getWarrantyPeriod();
+            } else {
+                Clothing clothing = (Clothing) product;
+                type = CLOTHING;
+                columns.firstAttributes[row] = code(clothing.getSize());
+                columns.secondAttributes[row] = code(clothing.getColor());
+            }
+            System.arraycopy(id, 0, columns.idBytes, idEnd, id.length);
+            columns.idOffsets[row] = idEnd;
+            columns.idLengths[row] = id.length;
+            idEnd += id.length;
+            System.arraycopy(name, 0, columns.nameBytes, nameEnd, name.length);
+            columns.nameOffsets[row] = nameEnd;
+            columns.nameLengths[row] = name.length;
+            nameEnd += name.length;
+            columns.types[row] = type;
+            liveRows++;
+
+            // A product replaced in place keeps its slot
+            if (row != previous) {
+                insertIntoIdTable(row, hash(id, 0, id.length));
+            }
+            return view(columns, row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the product with the given ID.
+     *
+     * @param productId The ID of the product to remove.
+     * @return False if no product has that ID.
+     */
+    public boolean remove(String productId) {
+        lock.writeLock().lock();
+        try {
+            int row = findRow(productId.getBytes(StandardCharsets.UTF_8));
+            if (row < 0) {
+                return false;
+            }
+            free(row);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a view of the product with the given ID.
+     *
+     * @param productId The ID of the product.
+     * @return The view, or null if no product has that ID.
+     */
+    public Product findById(String productId) {
+        byte[] id = productId.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            int row = findRow(id);
+            return row < 0 ? null : view(columns, row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of products in the store.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveRows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Iterates over views of the products in row order. Products added or removed while iterating may or
+     * may not be included.
+     */
+    @Override
+    public Iterator<Product> iterator() {
+        int end;
+        lock.readLock().lock();
+        try {
+            end = rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new Iterator<>() {
+            // The row of the next view, found by find
+            private int row;
+            private Product next = find(0);
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Product next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Product product = next;
+                next = find(row + 1);
+                return product;
+            }
+
+            // The view of the first live row from the given one, read under the lock so it is not half written
+            private Product find(int from) {
+                lock.readLock().lock();
+                try {
+                    Columns columns = ColumnarProductStore.this.columns;
+                    for (row = from; row < end; row++) {
+                        if (columns.types[row] != REMOVED) {
+                            return view(columns, row);
+                        }
+                    }
+                    return null;
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        };
+    }
+
+    // The caller holds the lock; removed rows are skipped, so a re-added ID finds its newest row
+    private int findRow(byte[] id) {
+        Columns columns = this.columns;
+        int mask = idTable.length - 1;
+        for (int slot = hash(id, 0, id.length) & mask; idTable[slot] != 0; slot = (slot + 1) & mask) {
+            int row = idTable[slot] - 1;
+            int offset = columns.idOffsets[row];
+            if (columns.types[row] != REMOVED
+                    && Arrays.equals(columns.idBytes, offset, offset + columns.idLengths[row], id, 0, id.length)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    // The caller holds the write lock; marks the row removed, so views of it stop working, and lets it be reused
+    private void free(int row) {
+        Columns columns = this.columns;
+        columns.types[row] = REMOVED;
+        columns.generations[row]++;
+        idGarbage += columns.idLengths[row];
+        nameGarbage += columns.nameLengths[row];
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+        }
+        freeRows[freeCount++] = row;
+        liveRows--;
+    }
+
+    // The caller holds the write lock and has made room in the table
+    private void insertIntoIdTable(int row, int hash) {
+        int mask = idTable.length - 1;
+        int slot = hash & mask;
+        while (idTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        idTable[slot] = row + 1;
+        usedSlots++;
+    }
+
+    // Drops the slots of removed rows and leaves the table at most a third full
+    private void rebuildIdTable() {
+        Columns columns = this.columns;
+        idTable = new int[tableSizeFor(Math.max(16, (liveRows + 1) * 3))];
+        usedSlots = 0;
+        for (int row = 0; row < rows; row++) {
+            if (columns.types[row] != REMOVED) {
+                int offset = columns.idOffsets[row];
+                insertIntoIdTable(row, hash(columns.idBytes, offset, offset + columns.idLengths[row]));
+            }
+        }
+    }
+
+    // The smallest power of two of at least n
+    private static int tableSizeFor(int n) {
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+
+    // The caller holds the write lock; hands out a row that has never been used, growing the columns if needed
+    private int newRow() {
+        Columns columns = this.columns;
+        if (rows == columns.types.length) {
+            int capacity = rows + (rows >> 1);
+            this.columns = new Columns(Arrays.copyOf(columns.types, capacity), Arrays.copyOf(columns.generations, capacity),
+                    Arrays.copyOf(columns.availableItems, capacity), Arrays.copyOf(columns.prices, capacity),
+                    Arrays.copyOf(columns.firstAttributes, capacity), Arrays.copyOf(columns.secondAttributes, capacity),
+                    Arrays.copyOf(columns.idOffsets, capacity), Arrays.copyOf(columns.idLengths, capacity), columns.idBytes,
+                    Arrays.copyOf(columns.nameOffsets, capacity), Arrays.copyOf(columns.nameLengths, capacity), columns.nameBytes);
+        }
+        return rows++;
+    }
+
+    // The caller holds the write lock. Makes room at the end of the byte pools for one more ID and name,
+    // compacting the pools first if at least half of their bytes belong to removed products
+    private Columns makeRoom(int idLength, int nameLength) {
+        Columns columns = this.columns;
+        if (idEnd + idLength <= columns.idBytes.length && nameEnd + nameLength <= columns.nameBytes.length) {
+            return columns;
+        }
+        int[] idOffsets = columns.idOffsets;
+        byte[] idBytes = columns.idBytes;
+        int[] nameOffsets = columns.nameOffsets;
+        byte[] nameBytes = columns.nameBytes;
+        if (idGarbage * 2 >= idEnd || nameGarbage * 2 >= nameEnd) {
+            // Copy into new arrays, so views reading the old ones are not disturbed
+            idOffsets = new int[idOffsets.length];
+            idBytes = new byte[idBytes.length];
+            nameOffsets = new int[nameOffsets.length];
+            nameBytes = new byte[nameBytes.length];
+            idEnd = 0;
+            nameEnd = 0;
+            for (int row = 0; row < rows; row++) {
+                if (columns.types[row] != REMOVED) {
+                    System.arraycopy(columns.idBytes, columns.idOffsets[row], idBytes, idEnd, columns.idLengths[row]);
+                    idOffsets[row] = idEnd;
+                    idEnd += columns.idLengths[row];
+                    System.arraycopy(columns.nameBytes, columns.nameOffsets[row], nameBytes, nameEnd, columns.nameLengths[row]);
+                    nameOffsets[row] = nameEnd;
+                    nameEnd += columns.nameLengths[row];
+                }
+            }
+            idGarbage = 0;
+            nameGarbage = 0;
+        }
+        if (idEnd + idLength > idBytes.length) {
+            idBytes = Arrays.copyOf(idBytes, Math.max(idEnd + idLength, idBytes.length + (idBytes.length >> 1)));
+        }
+        if (nameEnd + nameLength > nameBytes.length) {
+            nameBytes = Arrays.copyOf(nameBytes, Math.max(nameEnd + nameLength, nameBytes.length + (nameBytes.length >> 1)));
+        }
+        this.columns = new Columns(columns.types, columns.generations, columns.availableItems, columns.prices,
+                columns.firstAttributes, columns.secondAttributes, idOffsets, columns.idLengths, idBytes,
+                nameOffsets, columns.nameLengths, nameBytes);
+        return this.columns;
+    }
+
+    // The caller holds the write lock
+    private int code(String value) {
+        Integer code = dictionaryCodes.get(value);
+        if (code == null) {
+            String[] values = Arrays.copyOf(dictionary, dictionary.length + 1);
+            code = values.length - 1;
+            values[code] = value;
+            dictionary = values;
+            dictionaryCodes.put(value, code);
+        }
+        return code;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the bits, so IDs that differ only in their last characters do not fill neighbouring slots
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private Product view(Columns columns, int row) {
+        int generation = columns.generations[row];
+        return columns.types[row] == ELECTRONICS ? new ElectronicsView(row, generation) : new ClothingView(row, generation);
+    }
+
+    // The columns, once the view's product is known to still be in its row
+    private Columns columns(int row, int generation) {
+        Columns columns = this.columns;
+        if (columns.generations[row] != generation) {
+            throw new IllegalStateException("The product has been removed from the store");
+        }
+        return columns;
+    }
+
+    private String id(int row, int generation) {
+        Columns columns = columns(row, generation);
+        return new String(columns.idBytes, columns.idOffsets[row], columns.idLengths[row], StandardCharsets.UTF_8);
+    }
+
+    private String name(int row, int generation) {
+        Columns columns = columns(row, generation);
+        return new String(columns.nameBytes, columns.nameOffsets[row], columns.nameLengths[row], StandardCharsets.UTF_8);
+    }
+
+    private void setAvailableItems(int row, int generation, int value) {
+        lock.writeLock().lock();
+        try {
+            columns(row, generation).availableItems[row] = value;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void setPrice(int row, int generation, long value) {
+        lock.writeLock().lock();
+        try {
+            columns(row, generation).prices[row] = value;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Change the product by adding it to the store again");
+    }
+
+    /**
+     * An Electronics product read from a row of the store.
+     */
+    private class ElectronicsView extends Electronics {
+        private final int row;
+        private final int generation;
+
+        private ElectronicsView(int row, int generation) {
+            super(null, null, 0, 0, null, 0);
+            this.row = row;
+            this.generation = generation;
+        }
+
+        @Override
+        public String getProductId() {
+            return id(row, generation);
+        }
+
+        @Override
+        public String getProductName() {
+            return name(row, generation);
+        }
+
+        @Override
+        public int getAvailableItems() {
+            return columns(row, generation).availableItems[row];
+        }
+
+        @Override
+        public void setAvailableItems(int availableItems) {
+            ColumnarProductStore.this.setAvailableItems(row, generation, availableItems);
+        }
+
+        @Override
+        public long getPrice() {
+            return columns(row, generation).prices[row];
+        }
+
+        @Override
+        public void setPrice(long price) {
+            ColumnarProductStore.this.setPrice(row, generation, price);
+        }
+
+        @Override
+        public String getBrand() {
+            return dictionary[columns(row, generation).firstAttributes[row]];
+        }
+
+        @Override
+        public int getWarrantyPeriod() {
+            return columns(row, generation).secondAttributes[row];
+        }
+
+        @Override
+        public void setProductId(String productId) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setProductName(String productName) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setBrand(String brand) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setWarrantyPeriod(int warrantyPeriod) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ElectronicsView view && view.row == row && view.generation == generation && view.store() == store();
+        }
+
+        @Override
+        public int hashCode() {
+            return row;
+        }
+
+        private ColumnarProductStore store() {
+            return ColumnarProductStore.this;
+        }
+    }
+
+    /**
+     * A Clothing product read from a row of the store.
+     */
+    private class ClothingView extends Clothing {
+        private final int row;
+        private final int generation;
+
+        private ClothingView(int row, int generation) {
+            super(null, null, 0, 0, null, null);
+            this.row = row;
+            this.generation = generation;
+        }
+
+        @Override
+        public String getProductId() {
+            return id(row, generation);
+        }
+
+        @Override
+        public String getProductName() {
+            return name(row, generation);
+        }
+
+        @Override
+        public int getAvailableItems() {
+            return columns(row, generation).availableItems[row];
+        }
+
+        @Override
+        public void setAvailableItems(int availableItems) {
+            ColumnarProductStore.this.setAvailableItems(row, generation, availableItems);
+        }
+
+        @Override
+        public long getPrice() {
+            return columns(row, generation).prices[row];
+        }
+
+        @Override
+        public void setPrice(long price) {
+            ColumnarProductStore.this.setPrice(row, generation, price);
+        }
+
+        @Override
+        public String getSize() {
+            return dictionary[columns(row, generation).firstAttributes[row]];
+        }
+
+        @Override
+        public String getColor() {
+            return dictionary[columns(row, generation).secondAttributes[row]];
+        }
+
+        @Override
+        public void setProductId(String productId) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setProductName(String productName) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setSize(String size) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setColor(String color) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ClothingView view && view.row == row && view.generation == generation && view.store() == store();
+        }
+
+        @Override
+        public int hashCode() {
+            return row;
+        }
+
+        private ColumnarProductStore store() {
+            return ColumnarProductStore.this;
+        }
+    }
+
+    /**
+     * One complete set of columns. Rows' values are written in place; the arrays themselves are replaced by
+     * a new set when they grow or the byte pools are compacted.
+     */
+    private static final class Columns {
+        private final byte[] types;
+        // Bumped when a row's product is removed, so views of it can tell
+        private final int[] generations;
+        private final int[] availableItems;
+        private final long[] prices;
+        // Brand code for Electronics, size code for Clothing
+        private final int[] firstAttributes;
+        // Warranty period for Electronics, color code for Clothing
+        private final int[] secondAttributes;
+        // Row r's ID is the idLengths[r] bytes of idBytes from idOffsets[r], and its name likewise in nameBytes
+        private final int[] idOffsets;
+        private final int[] idLengths;
+        private final byte[] idBytes;
+        private final int[] nameOffsets;
+        private final int[] nameLengths;
+        private final byte[] nameBytes;
+
+        private Columns(byte[] types, int[] generations, int[] availableItems, long[] prices, int[] firstAttributes,
+                        int[] secondAttributes, int[] idOffsets, int[] idLengths, byte[] idBytes,
+                        int[] nameOffsets, int[] nameLengths, byte[] nameBytes) {
+            this.types = types;
+            this.generations = generations;
+            this.availableItems = availableItems;
+            this.prices = prices;
+            this.firstAttributes = firstAttributes;
+            this.secondAttributes = secondAttributes;
+            this.idOffsets = idOffsets;
+            this.idLengths = idLengths;
+            this.idBytes = idBytes;
+            this.nameOffsets = nameOffsets;
+            this.nameLengths = nameLengths;
+            this.nameBytes = nameBytes;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Keeps user credentials as salted PBKDF2 password hashes.
+ * <p>
+ * The credentials file is an append-only log with one record per line:
+ * <pre>
+ * username:pbkdf2-sha512:&lt;iterations&gt;:&lt;salt (Base64)&gt;:&lt;hash (Base64)&gt;
+ * </pre>
+ * A later record for a username replaces an earlier one. The log is read into a hash index once at
+ * startup; registering a user then appends a single line, and looking one up is a single map access.
+ * <p>
+ * The cost of a hash is set with {@code -Dwsm.password.iterations} (210,000 by default). Each record keeps
+ * the iteration count it was hashed with, so raising the cost does not break existing passwords: they are
+ * hashed again at the new cost the next time the user logs in. Plaintext "username:password" lines from the
+ * old file format are migrated the same way: they are checked as they are until the user's first successful
+ * login, which hashes the password and rewrites the file without it. Loading the file hashes nothing, so
+ * startup does not slow down with the number of old users.
+ */
+public class CredentialStore {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA512";
+    private static final String SCHEME = "pbkdf2-sha512";
+    private static final int ITERATIONS = Integer.getInteger("wsm.password.iterations", 210_000);
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 512;
+
+    private final Path file;
+    private final Map<String, Credential> credentials = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    // Checked against when the username is unknown, so unknown and known users take as long to reject
+    private final Credential dummy;
+
+    /**
+     * Constructor for CredentialStore. Creates the credentials file if it does not exist and loads it.
+     *
+     * @param file The credentials file, e.g. userCredentials.txt.
+     */
+    public CredentialStore(Path file) throws IOException {
+        this.file = file;
+        if (Files.notExists(file)) {
+            Files.createFile(file);
+        }
+        load();
+        dummy = hash(new char[0]);
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                // Skip empty lines
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                // Only the line number is logged, since the line may hold a password
+                String[] parts = line.split(":");
+                if (parts.length == 5 && SCHEME.equals(parts[1])) {
+                    try {
+                        Base64.Decoder decoder = Base64.getDecoder();
+                        credentials.put(parts[0], new Credential(Integer.parseInt(parts[2]), decoder.decode(parts[3]), decoder.decode(parts[4])));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid line format in " + file + " at line " + lineNumber);
+                    }
+                } else if (line.indexOf(':') > 0) {
+                    // Usernames cannot contain ':', so everything after the first one is the password
+                    int separator = line.indexOf(':');
+                    credentials.put(line.substring(0, separator),
+                            new Credential(line.substring(separator + 1).getBytes(StandardCharsets.UTF_8)));
+                } else {
+                    System.err.println("Invalid line format in " + file + " at line " + lineNumber);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the credentials file with one record per user. The records go to a temporary file that is
+     * forced to disk and then moved over the old file, so a crash leaves one file or the other.
+     */
+    private synchronized void compact() throws IOException {
+        Path target = file.toAbsolutePath();
+        Path tempFile = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+                 Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, Credential> entry : credentials.entrySet()) {
+                    writer.write(record(entry.getKey(), entry.getValue()));
+                }
+                writer.flush();
+                channel.force(true);
+            }
+            try {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Registers a new user.
+     *
+     * @param username The username; it may not be empty or contain ':' or line breaks.
+     * @param password The password.
+     * @return False if the username is taken or not allowed.
+     */
+    public boolean register(String username, char[] password) throws IOException {
+        if (!isValidUsername(username) || credentials.containsKey(username)) {
+            return false;
+        }
+        // Hash outside the lock; it is the slow part
+        Credential credential = hash(password);
+        synchronized (this) {
+            if (credentials.containsKey(username)) {
+                return false;
+            }
+            append(username, credential);
+            credentials.put(username, credential);
+        }
+        return true;
+    }
+
+    /**
+     * Checks a username and password.
+     *
+     * @param username The username.
+     * @param password The password.
+     * @return True if the user exists and the password is correct.
+     */
+    public boolean verify(String username, char[] password) {
+        Credential credential = username == null ? null : credentials.get(username);
+        if (credential == null) {
+            dummy.matches(password);
+            return false;
+        }
+        if (!credential.matches(password)) {
+            return false;
+        }
+        if (credential.iterations < ITERATIONS) {
+            upgrade(username, credential, password);
+        }
+        return true;
+    }
+
+    public boolean exists(String username) {
+        return credentials.containsKey(username);
+    }
+
+    /**
+     * Returns the number of registered users.
+     */
+    public int size() {
+        return credentials.size();
+    }
+
+    // Re-hashes a record made at a lower cost, or a plaintext one, at the current cost after a successful login
+    private void upgrade(String username, Credential old, char[] password) {
+        Credential credential = hash(password);
+        synchronized (this) {
+            if (credentials.get(username) != old) {
+                return;
+            }
+            try {
+                if (old.plaintext != null) {
+                    // Rewrite the file rather than append, so the plaintext password leaves the disk
+                    credentials.put(username, credential);
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        credentials.put(username, old);
+                        throw e;
+                    }
+                } else {
+                    append(username, credential);
+                    credentials.put(username, credential);
+                }
+            } catch (IOException e) {
+                System.err.println("Error upgrading the password hash of " + username + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // The caller holds the lock
+    private void append(String username, Credential credential) throws IOException {
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND, StandardOpenOption.SYNC))) {
+            writer.write(record(username, credential));
+        }
+    }
+
+    private static String record(String username, Credential credential) {
+        if (credential.plaintext != null) {
+            // Not migrated yet; kept in the old format until the user logs in
+            return username + ":" + new String(credential.plaintext, StandardCharsets.UTF_8) + "\n";
+        }
+        Base64.Encoder encoder = Base64.getEncoder();
+        return username + ":" + SCHEME + ":" + credential.iterations + ":"
+                + encoder.encodeToString(credential.salt) + ":" + encoder.encodeToString(credential.hash) + "\n";
+    }
+
+    private Credential hash(char[] password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return new Credential(ITERATIONS, salt, pbkdf2(password, salt, ITERATIONS));
+    }
+
+    private static byte[] pbkdf2(char[] password, byte[] salt, int iterations) {
+        KeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Returns true if a username can be stored: it is not empty and has no ':' or line breaks.
+     */
+    static boolean isValidUsername(String username) {
+        return username != null && !username.isEmpty() && username.indexOf(':') < 0
+                && username.indexOf('\n') < 0 && username.indexOf('\r') < 0;
+    }
+
+    /**
+     * The stored credential of one user: a salted hash and the iteration count it was made with, or the
+     * plaintext password of a user from the old file format who has not logged in since.
+     */
+    private static class Credential {
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+        private final byte[] plaintext;
+
+        private Credential(int iterations, byte[] salt, byte[] hash) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+            this.plaintext = null;
+        }
+
+        // A plaintext password in UTF-8; its iteration count of zero gets it upgraded on the next login
+        private Credential(byte[] plaintext) {
+            this.iterations = 0;
+            this.salt = null;
+            this.hash = null;
+            this.plaintext = plaintext;
+        }
+
+        private boolean matches(char[] password) {
+            if (plaintext != null) {
+                ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+                byte[] bytes = new byte[encoded.remaining()];
+                encoded.get(bytes);
+                return MessageDigest.isEqual(plaintext, bytes);
+            }
+            // Compare in constant time so the check does not reveal how much of the hash matched
+            return MessageDigest.isEqual(hash, pbkdf2(password, salt, iterations));
+        }
+    }
+}
@@ -2,7 +2,7 @@ public class Electronics extends Product{
     private String brand;
     private int warrantyPeriod;
 
-    public Electronics(String productId, String productName, int availableItems, double price,
+    public Electronics(String productId, String productName, int availableItems, long price,
                        String brand, int warrantyPeriod) {
         super(productId, productName, availableItems, price);
         this.brand = brand;
@@ -0,0 +1,22 @@
+/**
+ * Takes a percentage off the whole cart for a customer's first purchase.
+ */
+public class FirstPurchaseRule extends PromotionRule {
+    // In basis points, hundredths of a percent
+    private final long rate;
+
+    /**
+     * Constructor for FirstPurchaseRule.
+     *
+     * @param percent The percentage taken off the cart total.
+     */
+    public FirstPurchaseRule(double percent) {
+        super(Trigger.CART, null);
+        this.rate = Money.basisPoints(percent);
+    }
+
+    @Override
+    public long discount(ShoppingCart cart, String matchedKey) {
+        return cart.isFirstPurchase() ? Money.percentOf(cart.getPricing().getTotal(), rate) : 0;
+    }
+}
@@ -0,0 +1,356 @@
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out stock to shopping carts without overselling.
+ * <p>
+ * Each product has an atomic counter of the items still available to reserve. Adding to a cart
+ * reserves items with a compare-and-set on that counter, so shoppers only contend with others
+ * reserving the same product. Reservations belong to a cart and expire if the cart is left alone
+ * for longer than the time-to-live; a background reaper then returns the items to the counter.
+ * Checking out commits the cart's reservations through the catalog's write-ahead log.
+ */
+public class InventoryService {
+    // How often expired reservations are looked for
+    private static final long REAPER_INTERVAL_SECONDS = 5;
+
+    // Reservations made and refused, and time to commit a checkout, see MetricsRegistry
+    private static final LongAdder RESERVED = MetricsRegistry.getDefault().counter("inventory.reserved");
+    private static final LongAdder REFUSED = MetricsRegistry.getDefault().counter("inventory.refused");
+    private static final LatencyHistogram COMMIT_TIME = MetricsRegistry.getDefault().histogram("inventory.commit");
+
+    private final WestminsterShoppingManager shoppingManager;
+    private final long timeToLiveMillis;
+    private final ScheduledExecutorService reaper;
+
+    // Items available to reserve, per product ID: committed stock minus live reservations
+    private final Map<String, AtomicInteger> available = new ConcurrentHashMap<>();
+
+    // Live reservations per cart
+    private final Map<String, CartReservations> reservationsByCart = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for InventoryService.
+     *
+     * @param shoppingManager The manager holding the catalog the stock is taken from.
+     * @param timeToLive      How long a cart's reservations are kept after its last change.
+     */
+    public InventoryService(WestminsterShoppingManager shoppingManager, Duration timeToLive) {
+        this.shoppingManager = shoppingManager;
+        this.timeToLiveMillis = timeToLive.toMillis();
+
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inventory-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::releaseExpired, REAPER_INTERVAL_SECONDS, REAPER_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the number of items of a product that can still be reserved.
+     *
+     * @param productId The ID of the product.
+     * @return The available items, or 0 if the product is not in the catalog.
+     */
+    public int getAvailable(String productId) {
+        AtomicInteger counter = counter(productId);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Reserves items of a product for a cart and keeps the cart's other reservations alive.
+     *
+     * @param cartId    The ID of the cart.
+     * @param productId The ID of the product.
+     * @param quantity  The number of items to reserve.
+     * @return True if the items were reserved, false if not enough are available.
+     */
+    public boolean reserve(String cartId, String productId, int quantity) {
+        AtomicInteger counter = counter(productId);
+        if (counter == null || !take(counter, quantity)) {
+            REFUSED.increment();
+            return false;
+        }
+        RESERVED.increment();
+
+        while (true) {
+            CartReservations reservations = reservationsByCart.computeIfAbsent(cartId, id -> new CartReservations());
+            reservations.lock.lock();
+            try {
+                // The reaper may have dropped these reservations before the lock was taken
+                if (reservations.released) {
+                    continue;
+                }
+                reservations.quantities.merge(productId, quantity, Integer::sum);
+                reservations.expiresAt = System.currentTimeMillis() + timeToLiveMillis;
+                return true;
+            } finally {
+                reservations.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns reserved items of a product to the available stock, for example when they are taken out of a cart.
+     *
+     * @param cartId    The ID of the cart.
+     * @param productId The ID of the product.
+     * @param quantity  The number of items to release.
+     */
+    public void release(String cartId, String productId, int quantity) {
+        CartReservations reservations = reservationsByCart.get(cartId);
+        if (reservations == null) {
+            return;
+        }
+        int released;
+        reservations.lock.lock();
+        try {
+            int reserved = reservations.quantities.getOrDefault(productId, 0);
+            released = Math.min(reserved, quantity);
+            if (released == reserved) {
+                reservations.quantities.remove(productId);
+            } else {
+                reservations.quantities.put(productId, reserved - released);
+            }
+        } finally {
+            reservations.lock.unlock();
+        }
+        giveBack(productId, released);
+    }
+
+    /**
+     * Releases every reservation of a cart, for example when it is abandoned.
+     *
+     * @param cartId The ID of the cart.
+     */
+    public void releaseAll(String cartId) {
+        CartReservations reservations = reservationsByCart.remove(cartId);
+        if (reservations == null) {
+            return;
+        }
+        reservations.lock.lock();
+        try {
+            reservations.release();
+        } finally {
+            reservations.lock.unlock();
+        }
+    }
+
+    /**
+     * Commits a cart's reservations: the reserved items are taken off the stock for good.
+     * If some reservations expired, the items are reserved again first; if that is not possible
+     * nothing is committed and the cart keeps whatever it still has reserved.
+     *
+     * @param cartId     The ID of the cart.
+     * @param quantities The quantity of each product being bought, by product ID.
+     * @return True if the whole order was committed, false if some items are out of stock or no longer sold.
+     * @throws java.io.UncheckedIOException If the sale could not be logged; nothing is committed.
+     */
+    public boolean commit(String cartId, Map<String, Integer> quantities) {
+        long start = System.nanoTime();
+        try {
+            return commitReservations(cartId, quantities);
+        } finally {
+            COMMIT_TIME.recordSince(start);
+        }
+    }
+
+    private boolean commitReservations(String cartId, Map<String, Integer> quantities) {
+        CartReservations reservations = reservationsByCart.computeIfAbsent(cartId, id -> new CartReservations());
+        reservations.lock.lock();
+        try {
+            if (reservations.released) {
+                return commitReservations(cartId, quantities);
+            }
+            // Reserve again whatever is no longer held, undoing it all if any product has run out
+            Map<String, Integer> retaken = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+                int missing = entry.getValue() - reservations.quantities.getOrDefault(entry.getKey(), 0);
+                if (missing <= 0) {
+                    continue;
+                }
+                AtomicInteger counter = counter(entry.getKey());
+                if (counter == null || !take(counter, missing)) {
+                    retaken.forEach(this::giveBack);
+                    return false;
+                }
+                retaken.put(entry.getKey(), missing);
+            }
+
+            // Make the sale durable; if part of it cannot be logged, give back the stock already taken and
+            // keep the cart's items reserved so the checkout can be tried again
+            Map<String, Integer> committed = new HashMap<>();
+            try {
+                for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+                    if (!shoppingManager.adjustStock(entry.getKey(), -entry.getValue())) {
+                        // The product has been removed, or its stock lowered below what was reserved
+                        committed.forEach(shoppingManager::adjustStock);
+                        retaken.forEach(this::giveBack);
+                        return false;
+                    }
+                    committed.put(entry.getKey(), entry.getValue());
+                }
+            } catch (RuntimeException e) {
+                committed.forEach(shoppingManager::adjustStock);
+                retaken.forEach((productId, quantity) -> reservations.quantities.merge(productId, quantity, Integer::sum));
+                throw e;
+            }
+
+            // Drop the reservations the sale used up
+            for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+                String productId = entry.getKey();
+                int left = reservations.quantities.getOrDefault(productId, 0) + retaken.getOrDefault(productId, 0)
+                        - entry.getValue();
+                if (left > 0) {
+                    reservations.quantities.put(productId, left);
+                } else {
+                    reservations.quantities.remove(productId);
+                }
+            }
+            if (reservations.quantities.isEmpty()) {
+                reservationsByCart.remove(cartId, reservations);
+                reservations.released = true;
+            }
+            return true;
+        } finally {
+            reservations.lock.unlock();
+        }
+    }
+
+    /**
+     * Applies a change made to a product's stock outside of checkout, such as a manager restocking it.
+     * Must be called before the catalog's stock changes: a counter created at the same time is then either
+     * created here from the new stock, or created from the old stock and given the difference here.
+     *
+     * @param productId      The ID of the product.
+     * @param previousItems  The product's stock before the change.
+     * @param availableItems The product's stock after the change.
+     */
+    public void stockChanged(String productId, int previousItems, int availableItems) {
+        // One atomic step per product, so it cannot fall between a counter being read and being created
+        available.compute(productId, (id, counter) -> {
+            if (counter == null) {
+                return new AtomicInteger(availableItems);
+            }
+            counter.addAndGet(availableItems - previousItems);
+            return counter;
+        });
+    }
+
+    /**
+     * Forgets the counter of a product that has been removed from the catalog, so a product later added
+     * with the same ID starts from its own stock. Called while the catalog is locked.
+     *
+     * @param productId The ID of the removed product.
+     */
+    public void productRemoved(String productId) {
+        available.remove(productId);
+    }
+
+    /**
+     * Drops every cart's reservations of a removed product, so releasing them later cannot add to the
+     * counter of a product added again with the same ID. Takes the carts' locks, so it must not be called
+     * while the catalog is locked: checkout locks a cart and then the catalog.
+     *
+     * @param productId The ID of the removed product.
+     */
+    public void dropReservations(String productId) {
+        for (CartReservations reservations : reservationsByCart.values()) {
+            reservations.lock.lock();
+            try {
+                reservations.quantities.remove(productId);
+            } finally {
+                reservations.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stops the background reaper. Reservations are kept until they are released or committed.
+     */
+    public void close() {
+        reaper.shutdown();
+    }
+
+    /**
+     * Releases the reservations of carts that have not changed within the time-to-live.
+     */
+    private void releaseExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, CartReservations> entry : reservationsByCart.entrySet()) {
+            CartReservations reservations = entry.getValue();
+            reservations.lock.lock();
+            try {
+                if (reservations.expiresAt <= now) {
+                    reservationsByCart.remove(entry.getKey(), reservations);
+                    reservations.release();
+                }
+            } finally {
+                reservations.lock.unlock();
+            }
+        }
+    }
+
+    private AtomicInteger counter(String productId) {
+        AtomicInteger counter = available.get(productId);
+        if (counter != null) {
+            return counter;
+        }
+        // The stock is read inside the atomic step, so a concurrent stockChanged waits for it and then applies.
+        // The catalog is looked up first: a reload waits for the manager's lock, whose holder may be waiting
+        // in stockChanged for this step
+        ProductRepository catalog = shoppingManager.getCatalog();
+        return available.computeIfAbsent(productId, id -> {
+            Product product = catalog.findById(id);
+            return product == null ? null : new AtomicInteger(product.getAvailableItems());
+        });
+    }
+
+    // Compare-and-set loop that never lets the counter go below zero
+    private static boolean take(AtomicInteger counter, int quantity) {
+        while (true) {
+            int current = counter.get();
+            if (current < quantity) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current - quantity)) {
+                return true;
+            }
+        }
+    }
+
+    private void giveBack(String productId, int quantity) {
+        AtomicInteger counter = available.get(productId);
+        if (counter != null && quantity > 0) {
+            counter.addAndGet(quantity);
+        }
+    }
+
+    /**
+     * The items a cart has reserved and when they expire.
+     */
+    private class CartReservations {
+        // Not the object's monitor: checkout waits on the write-ahead log while holding it, and a virtual
+        // thread blocked inside a monitor would pin its carrier thread
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, Integer> quantities = new HashMap<>();
+        private long expiresAt;
+        // Set once these reservations are no longer in the map, so late callers start afresh
+        private boolean released;
+
+        private void release() {
+            quantities.forEach(InventoryService.this::giveBack);
+            quantities.clear();
+            released = true;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies logins and registers users off the caller's thread, on a bounded pool with one worker per core.
+ * <p>
+ * Every attempt first passes two rate limits: one for the whole application, against bursts across many
+ * accounts (credential stuffing), and then one per username, against guessing one account's password.
+ * Registrations only pass the first. Attempts over either limit, or arriving while the pool's queue is full, are turned away without hashing anything.
+ * A login that succeeded recently is confirmed from a small cache instead of hashing the password again.
+ * <p>
+ * Settings: {@code -Dwsm.login.threads} (one per core), {@code -Dwsm.login.perUserPerMinute} (5),
+ * {@code -Dwsm.login.perSecond} (20 per core).
+ */
+public class LoginService {
+    private static final int THREADS = Integer.getInteger("wsm.login.threads", Runtime.getRuntime().availableProcessors());
+    private static final int ATTEMPTS_PER_USER_PER_MINUTE = Integer.getInteger("wsm.login.perUserPerMinute", 5);
+    private static final int ATTEMPTS_PER_SECOND = Integer.getInteger("wsm.login.perSecond", 20 * THREADS);
+    // Attempts waiting for a worker before new ones are turned away
+    private static final int QUEUE_CAPACITY = 16 * THREADS;
+    // Recent successful logins remembered, and for how long
+    private static final int CACHE_SIZE = 1024;
+    private static final long CACHE_TTL_NANOS = TimeUnit.MINUTES.toNanos(10);
+    // Per-username limiters kept; the least recently used is dropped beyond this
+    private static final int MAX_TRACKED_USERS = 10_000;
+
+    private static final LongAdder SUCCEEDED = MetricsRegistry.getDefault().counter("login.succeeded");
+    private static final LongAdder FAILED = MetricsRegistry.getDefault().counter("login.failed");
+    private static final LongAdder THROTTLED = MetricsRegistry.getDefault().counter("login.throttled");
+    private static final LongAdder CACHE_HITS = MetricsRegistry.getDefault().counter("login.cacheHits");
+    private static final LatencyHistogram VERIFY_TIME = MetricsRegistry.getDefault().histogram("login.verify");
+
+    /**
+     * The outcome of a login attempt.
+     */
+    public enum Result {
+        SUCCESS,
+        INVALID_CREDENTIALS,
+        // Too many attempts for the username or overall; try again later
+        THROTTLED
+    }
+
+    /**
+     * The outcome of a registration.
+     */
+    public enum RegistrationResult {
+        REGISTERED,
+        USERNAME_TAKEN,
+        // Empty, or containing ':' or a line break
+        INVALID_USERNAME,
+        // Too many attempts overall; try again later
+        THROTTLED,
+        // The credentials file could not be written
+        STORAGE_ERROR
+    }
+
+    private final CredentialStore credentialStore;
+    private final ThreadPoolExecutor executor;
+    private final TokenBucket globalLimit = new TokenBucket(ATTEMPTS_PER_SECOND, ATTEMPTS_PER_SECOND);
+    // Access-ordered, so a spray of new usernames evicts one limiter per attempt instead of scanning them all
+    private final Map<String, TokenBucket> userLimits = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+            return size() > MAX_TRACKED_USERS;
+        }
+    };
+
+    // Recent successful logins: username to a keyed digest of the password and when it was recorded
+    private final Map<String, CachedLogin> recentLogins = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedLogin> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    // Random per run, so cached digests are useless outside this process
+    private final byte[] cacheKey = new byte[32];
+
+    /**
+     * Constructor for LoginService.
+     *
+     * @param credentialStore The store the credentials are checked against.
+     */
+    public LoginService(CredentialStore credentialStore) {
+        this.credentialStore = credentialStore;
+        new SecureRandom().nextBytes(cacheKey);
+
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "login-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks a username and password in the background.
+     *
+     * @param username The username.
+     * @param password The password; the service works on a copy, so the caller can clear it straight away.
+     * @return A future completed with the outcome.
+     */
+    public CompletableFuture<Result> login(String username, char[] password) {
+        if (!tryAcquire(username)) {
+            THROTTLED.increment();
+            return CompletableFuture.completedFuture(Result.THROTTLED);
+        }
+
+        char[] copy = password.clone();
+        byte[] digest = cacheDigest(username, copy);
+        if (isRecentLogin(username, digest)) {
+            Arrays.fill(copy, '\0');
+            CACHE_HITS.increment();
+            SUCCEEDED.increment();
+            return CompletableFuture.completedFuture(Result.SUCCESS);
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    if (credentialStore.verify(username, copy)) {
+                        rememberLogin(username, digest);
+                        SUCCEEDED.increment();
+                        return Result.SUCCESS;
+                    }
+                    FAILED.increment();
+                    return Result.INVALID_CREDENTIALS;
+                } finally {
+                    Arrays.fill(copy, '\0');
+                    VERIFY_TIME.recordSince(start);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            // Every worker is busy and the queue is full
+            Arrays.fill(copy, '\0');
+            THROTTLED.increment();
+            return CompletableFuture.completedFuture(Result.THROTTLED);
+        }
+    }
+
+    /**
+     * Registers a new user in the background. Registrations share the workers and the global limit with logins.
+     *
+     * @param username The username.
+     * @param password The password; the service works on a copy.
+     * @return A future completed with the outcome.
+     */
+    public CompletableFuture<RegistrationResult> register(String username, char[] password) {
+        if (!CredentialStore.isValidUsername(username)) {
+            return CompletableFuture.completedFuture(RegistrationResult.INVALID_USERNAME);
+        }
+        if (!globalLimit.tryAcquire()) {
+            THROTTLED.increment();
+            return CompletableFuture.completedFuture(RegistrationResult.THROTTLED);
+        }
+        char[] copy = password.clone();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return credentialStore.register(username, copy)
+                            ? RegistrationResult.REGISTERED : RegistrationResult.USERNAME_TAKEN;
+                } catch (IOException e) {
+                    System.err.println("Error registering " + username + ": " + e.getMessage());
+                    return RegistrationResult.STORAGE_ERROR;
+                } finally {
+                    Arrays.fill(copy, '\0');
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            Arrays.fill(copy, '\0');
+            THROTTLED.increment();
+            return CompletableFuture.completedFuture(RegistrationResult.THROTTLED);
+        }
+    }
+
+    // The global limit is checked first, so attempts turned away by it neither create nor charge a username's limiter
+    private boolean tryAcquire(String username) {
+        if (!globalLimit.tryAcquire()) {
+            return false;
+        }
+        TokenBucket userLimit;
+        synchronized (userLimits) {
+            userLimit = userLimits.computeIfAbsent(String.valueOf(username),
+                    name -> new TokenBucket(ATTEMPTS_PER_USER_PER_MINUTE, ATTEMPTS_PER_USER_PER_MINUTE / 60.0));
+        }
+        return userLimit.tryAcquire();
+    }
+
+    private boolean isRecentLogin(String username, byte[] digest) {
+        CachedLogin cached;
+        synchronized (recentLogins) {
+            cached = recentLogins.get(username);
+        }
+        return cached != null && System.nanoTime() - cached.recordedAt < CACHE_TTL_NANOS
+                && MessageDigest.isEqual(cached.digest, digest);
+    }
+
+    private void rememberLogin(String username, byte[] digest) {
+        synchronized (recentLogins) {
+            recentLogins.put(username, new CachedLogin(digest, System.nanoTime()));
+        }
+    }
+
+    // HMAC-SHA256 of the username and password under the per-run key: cheap to check, useless if leaked
+    private byte[] cacheDigest(String username, char[] password) {
+        ByteBuffer passwordBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(cacheKey, "HmacSHA256"));
+            mac.update(String.valueOf(username).getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(passwordBytes.duplicate());
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        } finally {
+            if (passwordBytes.hasArray()) {
+                Arrays.fill(passwordBytes.array(), (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * A remembered successful login.
+     */
+    private static class CachedLogin {
+        private final byte[] digest;
+        private final long recordedAt;
+
+        private CachedLogin(byte[] digest, long recordedAt) {
+            this.digest = digest;
+            this.recordedAt = recordedAt;
+        }
+    }
+
+    /**
+     * Allows bursts of up to a capacity, refilled at a steady rate.
+     */
+    private static class TokenBucket {
+        private final double capacity;
+        private final double refillPerNano;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        private TokenBucket(double capacity, double refillPerSecond) {
+            this.capacity = capacity;
+            this.refillPerNano = refillPerSecond / 1e9;
+            this.tokens = capacity;
+        }
+
+        private synchronized boolean tryAcquire() {
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, latency histograms and gauges describing where the application spends its time.
+ * <p>
+ * Classes look their metrics up once, into static fields, and then only touch a {@link LongAdder} or a
+ * {@link LatencyHistogram} on the hot path. Gauges are read only when the metrics are dumped.
+ * The metrics can be dumped on demand, or written to a file periodically by starting the application with
+ * {@code -Dwsm.metrics.file=<file>} (every 60 seconds, or {@code -Dwsm.metrics.interval=<seconds>}).
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    static {
+        String file = System.getProperty("wsm.metrics.file");
+        if (file != null) {
+            DEFAULT.dumpPeriodically(Paths.get(file), Long.getLong("wsm.metrics.interval", 60));
+        }
+    }
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the registry shared by the whole application.
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the counter with a name, creating it the first time.
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Returns the latency histogram with a name, creating it the first time.
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same name.
+     *
+     * @param name  The name of the gauge.
+     * @param value Reads the current value when the metrics are dumped.
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Writes every metric, one per line, sorted by name. Latencies are shown as count, mean,
+     * 50th, 90th, 99th and 99.9th percentiles, and maximum.
+     *
+     * @param out Where to write the metrics.
+     */
+    public void dump(Appendable out) throws IOException {
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            out.append(String.format("counter    %-36s %d%n", counter.getKey(), counter.getValue().sum()));
+        }
+        for (Map.Entry<String, LongSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            out.append(String.format("gauge      %-36s %d%n", gauge.getKey(), gauge.getValue().getAsLong()));
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            out.append(String.format("histogram  %-36s count=%d mean=%s p50=%s p90=%s p99=%s p99.9=%s max=%s%n",
+                    entry.getKey(), histogram.getCount(), formatNanos(histogram.getMean()),
+                    formatNanos(histogram.getValueAtPercentile(50)), formatNanos(histogram.getValueAtPercentile(90)),
+                    formatNanos(histogram.getValueAtPercentile(99)), formatNanos(histogram.getValueAtPercentile(99.9)),
+                    formatNanos(histogram.getMax())));
+        }
+    }
+
+    /**
+     * Writes the metrics to a file at a fixed interval, from a background thread. Each dump replaces the file
+     * in one rename, so readers never see it half-written.
+     *
+     * @param file            The file to write.
+     * @param intervalSeconds The time between dumps.
+     */
+    public void dumpPeriodically(Path file, long intervalSeconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dumper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                Path target = file.toAbsolutePath();
+                Path tempFile = Files.createTempFile(target.getParent(), "metrics", ".tmp");
+                try {
+                    try (BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+                        dump(writer);
+                    }
+                    try {
+                        Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing metrics to " + file + ": " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private static String formatNanos(double nanos) {
+        if (nanos >= 1e9) {
+            return String.format("%.2fs", nanos / 1e9);
+        } else if (nanos >= 1e6) {
+            return String.format("%.2fms", nanos / 1e6);
+        } else if (nanos >= 1e3) {
+            return String.format("%.2fus", nanos / 1e3);
+        }
+        return String.format("%.0fns", nanos);
+    }
+}
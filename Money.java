@@ -0,0 +1,105 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amounts of money as a {@code long} count of minor units (cents, paisa): Rs.19.99 is 1999.
+ * <p>
+ * Adding and multiplying minor units is exact and allocates nothing, unlike doubles, which drift
+ * (0.1 + 0.2 != 0.3) and show totals like 1999.9999999, or BigDecimal, which allocates on every step.
+ * Rounding happens in only two places: when a percentage is taken of an amount, to the nearest minor
+ * unit, and when text is parsed with more than two decimals. Amounts are formatted with two decimals
+ * for display and for the product files.
+ */
+public final class Money {
+    public static final int MINOR_UNITS_PER_MAJOR = 100;
+
+    private Money() {
+    }
+
+    /**
+     * Parses an amount such as "19.99", "20", "-0.5" or "1.0E7" (as older product files wrote
+     * large prices). Digits beyond the second decimal are rounded half up.
+     *
+     * @param text The amount in major units.
+     * @return The amount in minor units.
+     * @throws NumberFormatException If the text is not a number.
+     */
+    public static long parse(String text) {
+        String trimmed = text.trim();
+        // Plain "123.45" is parsed by hand; anything else goes through BigDecimal
+        int length = trimmed.length();
+        int start = length > 0 && (trimmed.charAt(0) == '-' || trimmed.charAt(0) == '+') ? 1 : 0;
+        int point = trimmed.indexOf('.');
+        int integerEnd = point < 0 ? length : point;
+        if (integerEnd > start && integerEnd - start <= 15 && length - integerEnd <= 3
+                && allDigits(trimmed, start, integerEnd) && allDigits(trimmed, integerEnd + 1, length)) {
+            long amount = Long.parseLong(trimmed, start, integerEnd, 10) * MINOR_UNITS_PER_MAJOR;
+            if (point >= 0 && length > point + 1) {
+                amount += (trimmed.charAt(point + 1) - '0') * 10;
+                if (length > point + 2) {
+                    amount += trimmed.charAt(point + 2) - '0';
+                }
+            }
+            return trimmed.charAt(0) == '-' ? -amount : amount;
+        }
+        return new BigDecimal(trimmed).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    /**
+     * Converts an amount given as a double in major units, rounding to the nearest minor unit.
+     * For input from outside the application only; amounts are never kept as doubles.
+     */
+    public static long fromDouble(double amount) {
+        return Math.round(amount * MINOR_UNITS_PER_MAJOR);
+    }
+
+    /**
+     * Formats an amount with two decimals, e.g. 1999 as "19.99" and -50 as "-0.50".
+     */
+    public static String format(long amount) {
+        long major = Math.abs(amount / MINOR_UNITS_PER_MAJOR);
+        long minor = Math.abs(amount % MINOR_UNITS_PER_MAJOR);
+        return (amount < 0 ? "-" : "") + major + (minor < 10 ? ".0" : ".") + minor;
+    }
+
+    /**
+     * Returns the price of a number of items.
+     *
+     * @throws ArithmeticException If the result overflows.
+     */
+    public static long times(long unitPrice, int quantity) {
+        return Math.multiplyExact(unitPrice, quantity);
+    }
+
+    /**
+     * Converts a percentage such as 20 or 12.5 into basis points (hundredths of a percent), the form
+     * {@link #percentOf(long, long)} takes.
+     */
+    public static long basisPoints(double percent) {
+        return Math.round(percent * 100);
+    }
+
+    /**
+     * Takes a percentage of an amount, rounded half up to the nearest minor unit.
+     *
+     * @param amount      The amount in minor units.
+     * @param basisPoints The percentage in hundredths of a percent, e.g. 2000 for 20%.
+     * @return The part of the amount in minor units.
+     */
+    public static long percentOf(long amount, long basisPoints) {
+        long product = Math.multiplyExact(amount, basisPoints);
+        long part = product / 10_000;
+        long remainder = Math.abs(product % 10_000);
+        return remainder >= 5_000 ? part + Long.signum(product) : part;
+    }
+
+    private static boolean allDigits(String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
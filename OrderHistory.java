@@ -0,0 +1,86 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the orders placed by each user, so promotions such as {@link FirstPurchaseRule} can tell
+ * a user's first purchase from later ones.
+ * <p>
+ * The history file is an append-only log with one order per line:
+ * <pre>
+ * username&lt;tab&gt;order time (milliseconds since the epoch)&lt;tab&gt;final total
+ * </pre>
+ * It is read into a count of orders per user once, when the history is opened; recording an order then
+ * appends a single line, and asking whether a user has ordered is a single map access.
+ */
+public class OrderHistory {
+    private final Path file;
+    private final Map<String, Integer> orderCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for OrderHistory. Loads the history file if it exists.
+     *
+     * @param file The history file; created when the first order is recorded.
+     */
+    public OrderHistory(Path file) {
+        this.file = file;
+        load();
+    }
+
+    private void load() {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                // The username comes first and may itself contain tabs, so the fields are split from the end
+                int totalStart = line.lastIndexOf('\t');
+                int timeStart = totalStart > 0 ? line.lastIndexOf('\t', totalStart - 1) : -1;
+                if (timeStart <= 0) {
+                    System.err.println("Invalid line format in " + file + " at line " + lineNumber);
+                    continue;
+                }
+                orderCounts.merge(line.substring(0, timeStart), 1, Integer::sum);
+            }
+        } catch (NoSuchFileException e) {
+            // No orders yet
+        } catch (IOException e) {
+            System.err.println("An error occurred trying to load the order history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if the user has placed at least one order.
+     *
+     * @param username The username.
+     */
+    public boolean hasOrdered(String username) {
+        return orderCounts.containsKey(username);
+    }
+
+    /**
+     * Records an order placed by a user.
+     *
+     * @param username   The username.
+     * @param finalTotal The amount paid, in minor units, see {@link Money}.
+     */
+    public synchronized void recordOrder(String username, long finalTotal) throws IOException {
+        String record = username.replace('\n', ' ').replace('\r', ' ') + "\t" + System.currentTimeMillis()
+                + "\t" + Money.format(finalTotal) + "\n";
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(record);
+        }
+        orderCounts.merge(username, 1, Integer::sum);
+    }
+}
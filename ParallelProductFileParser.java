@@ -0,0 +1,247 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses a productList.txt style file on several threads.
+ * The file is split into chunks that start on an "Electronics:" or "Clothing:" line, each chunk is
+ * parsed on a ForkJoinPool with the shared ProductTextFormat parsers, and the results are joined
+ * back together in file order. A bad record is reported with its byte offset and skipped, so one
+ * broken entry does not stop the rest of the file from loading.
+ */
+public class ParallelProductFileParser {
+    // Chunks are about this size; each is mapped and parsed as one task
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private static final byte[] ELECTRONICS_LINE = ProductTextFormat.ELECTRONICS_HEADER.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CLOTHING_LINE = ProductTextFormat.CLOTHING_HEADER.getBytes(StandardCharsets.UTF_8);
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelProductFileParser() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor for ParallelProductFileParser.
+     *
+     * @param pool      The pool the chunks are parsed on.
+     * @param chunkSize The target size of a chunk in bytes.
+     */
+    public ParallelProductFileParser(ForkJoinPool pool, int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Parses a product file.
+     *
+     * @param path The product file.
+     * @return The products in file order and any records that could not be parsed.
+     */
+    public Result parse(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+
+            // Move each nominal split point forward to the start of the next record
+            List<Long> boundaries = new ArrayList<>();
+            boundaries.add(0L);
+            for (long split = chunkSize; split < fileSize; split += chunkSize) {
+                long recordStart = findRecordStart(channel, Math.max(split, boundaries.get(boundaries.size() - 1)), fileSize);
+                if (recordStart >= fileSize) {
+                    break;
+                }
+                if (recordStart > boundaries.get(boundaries.size() - 1)) {
+                    boundaries.add(recordStart);
+                }
+            }
+            boundaries.add(fileSize);
+
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < boundaries.size(); i++) {
+                long start = boundaries.get(i);
+                long end = boundaries.get(i + 1);
+                tasks.add(pool.submit(() -> parseChunk(channel, start, end)));
+            }
+
+            // Join in submission order so products keep their file order
+            Result merged = new Result();
+            for (ForkJoinTask<Result> task : tasks) {
+                Result chunk = task.join();
+                merged.products.addAll(chunk.products);
+                merged.errors.addAll(chunk.errors);
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Finds the offset of the first header line that starts at or after a position.
+     */
+    private static long findRecordStart(FileChannel channel, long position, long fileSize) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long offset = position;
+        // Start scanning at the beginning of the line containing the position
+        boolean atLineStart = position == 0 || readByte(channel, position - 1) == '\n';
+        while (offset < fileSize) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (atLineStart && startsWithHeader(channel, offset + i, fileSize)) {
+                    return offset + i;
+                }
+                atLineStart = buffer.get(i) == '\n';
+            }
+            offset += read;
+        }
+        return fileSize;
+    }
+
+    private static boolean startsWithHeader(FileChannel channel, long position, long fileSize) throws IOException {
+        return matchesLine(channel, position, fileSize, ELECTRONICS_LINE)
+                || matchesLine(channel, position, fileSize, CLOTHING_LINE);
+    }
+
+    private static boolean matchesLine(FileChannel channel, long position, long fileSize, byte[] line) throws IOException {
+        if (position + line.length > fileSize) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(line.length + 1);
+        channel.read(buffer, position);
+        for (int i = 0; i < line.length; i++) {
+            if (buffer.get(i) != line[i]) {
+                return false;
+            }
+        }
+        return position + line.length == fileSize || buffer.get(line.length) == '\n' || buffer.get(line.length) == '\r';
+    }
+
+    private static byte readByte(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        channel.read(buffer, position);
+        return buffer.get(0);
+    }
+
+    /**
+     * Parses the records between two offsets. Each record runs from a header line to the next one.
+     */
+    private static Result parseChunk(FileChannel channel, long start, long end) throws IOException {
+        Result result = new Result();
+        ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        String chunk = StandardCharsets.UTF_8.decode(bytes).toString();
+
+        // Character positions of the header lines, one per record, and their byte offsets in the file,
+        // counted as the lines are scanned
+        List<Integer> recordStarts = new ArrayList<>();
+        List<Long> recordOffsets = new ArrayList<>();
+        long byteOffset = start;
+        int lineStart = 0;
+        while (lineStart < chunk.length()) {
+            int lineEnd = chunk.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = chunk.length();
+            }
+            if (isHeader(chunk, lineStart, lineEnd)) {
+                recordStarts.add(lineStart);
+                recordOffsets.add(byteOffset);
+            }
+            byteOffset += utf8Length(chunk, lineStart, lineEnd) + 1;
+            lineStart = lineEnd + 1;
+        }
+        recordStarts.add(chunk.length());
+
+        // Each record is read on its own, so a failed one cannot read into the next
+        for (int record = 0; record < recordOffsets.size(); record++) {
+            String text = chunk.substring(recordStarts.get(record), recordStarts.get(record + 1));
+            try {
+                BufferedReader reader = new BufferedReader(new StringReader(text));
+                result.products.add(ProductTextFormat.readProduct(reader.readLine().trim(), reader));
+            } catch (IOException | RuntimeException e) {
+                result.errors.add(new ParseError(recordOffsets.get(record), e.getMessage()));
+            }
+        }
+        return result;
+    }
+
+    // The number of bytes the characters take in UTF-8
+    private static int utf8Length(String text, int from, int to) {
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                // A surrogate pair is four bytes, two for each half
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isHeader(String text, int lineStart, int lineEnd) {
+        if (lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        int length = lineEnd - lineStart;
+        return (length == ProductTextFormat.ELECTRONICS_HEADER.length() && text.startsWith(ProductTextFormat.ELECTRONICS_HEADER, lineStart))
+                || (length == ProductTextFormat.CLOTHING_HEADER.length() && text.startsWith(ProductTextFormat.CLOTHING_HEADER, lineStart));
+    }
+
+    /**
+     * Products parsed from a file, in file order, and the records that could not be parsed.
+     */
+    public static class Result {
+        private final List<Product> products = new ArrayList<>();
+        private final List<ParseError> errors = new ArrayList<>();
+
+        public List<Product> getProducts() {
+            return Collections.unmodifiableList(products);
+        }
+
+        public List<ParseError> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+    }
+
+    /**
+     * A record that could not be parsed, identified by the byte offset of its header line.
+     */
+    public static class ParseError {
+        private final long byteOffset;
+        private final String message;
+
+        ParseError(long byteOffset, String message) {
+            this.byteOffset = byteOffset;
+            this.message = message;
+        }
+
+        public long getByteOffset() {
+            return byteOffset;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "byte " + byteOffset + ": " + message;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Checks {@link ParallelProductFileParser} against the sequential {@link ProductFileReader}: with chunks
+ * much smaller than the file, the products must come back in file order, and every bad record must be
+ * reported at the byte offset of its header line, including after names with multi-byte characters.
+ * Run with {@code java ParserCheck}.
+ */
+public class ParserCheck {
+    private static final int PRODUCTS = 20_000;
+    // Every this many products a record with a broken stock count is written instead
+    private static final int BAD_RECORD_INTERVAL = 97;
+    // Small enough that the file is split into many chunks
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    // Names with two-, three- and four-byte characters in UTF-8, so character and byte positions differ
+    private static final String[] NAMES = {"Phone", "Caf\u00e9 Shirt", "\u65e5\u672c Radio", "Rocket \ud83d\ude80"};
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("parser-check");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Path file = directory.resolve("productList.txt");
+            List<Long> badOffsets = writeCatalog(file);
+
+            ParallelProductFileParser.Result result = new ParallelProductFileParser(pool, CHUNK_SIZE).parse(file);
+            List<String> sequential = new ArrayList<>();
+            try (Stream<Product> products = ProductFileReader.stream(file, error -> { })) {
+                products.forEach(product -> sequential.add(describe(product)));
+            }
+            List<String> parallel = new ArrayList<>();
+            for (Product product : result.getProducts()) {
+                parallel.add(describe(product));
+            }
+            List<Long> errorOffsets = new ArrayList<>();
+            for (ParallelProductFileParser.ParseError error : result.getErrors()) {
+                errorOffsets.add(error.getByteOffset());
+            }
+
+            Checks.check(Files.size(file) > 20L * CHUNK_SIZE, "the file spans many chunks");
+            Checks.check(parallel.size() == PRODUCTS - badOffsets.size(), "every good record is parsed");
+            Checks.check(parallel.equals(sequential), "products come back in file order, as the sequential reader reads them");
+            Checks.check(errorOffsets.equals(badOffsets), "bad records are reported at the byte offsets of their header lines");
+        } finally {
+            pool.shutdown();
+            Checks.deleteDirectory(directory);
+        }
+        Checks.finish("ParserCheck");
+    }
+
+    // Writes the catalog and returns the byte offsets of the bad records, counted as the file is written
+    private static List<Long> writeCatalog(Path file) throws IOException {
+        List<Long> badOffsets = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        for (int i = 0; i < PRODUCTS; i++) {
+            writer.flush();
+            String name = NAMES[i % NAMES.length] + " " + i;
+            if (i % BAD_RECORD_INTERVAL == BAD_RECORD_INTERVAL - 1) {
+                badOffsets.add((long) bytes.size());
+                writer.write(ProductTextFormat.ELECTRONICS_HEADER + "\nProduct ID: BAD" + i + "\nProduct Name: " + name
+                        + "\nAvailable Items: many\nPrice: 1.00\nBrand: Acme\nWarranty Period: 12\n");
+            } else if (i % 2 == 0) {
+                ProductTextFormat.writeProduct(writer, new Electronics("E" + i, name, i % 50 + 1, 100L * i, "Acme", 12));
+            } else {
+                ProductTextFormat.writeProduct(writer, new Clothing("C" + i, name, i % 50 + 1, 100L * i, "M", "Blue"));
+            }
+        }
+        writer.flush();
+        Files.write(file, bytes.toByteArray());
+        return badOffsets;
+    }
+
+    private static String describe(Product product) {
+        return product.getType() + "/" + product.getProductId() + "/" + product.getProductName() + "/"
+                + product.getAvailableItems() + "/" + product.getPrice();
+    }
+}
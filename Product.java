@@ -1,10 +1,12 @@
 public abstract class Product {
     private String productId;
     private String productName;
-    private int availableItems;
-    private double price;
+    // Changed by the manager while shopping sessions read them on other threads
+    private volatile int availableItems;
+    // In minor units, see Money
+    private volatile long price;
 
-    public Product(String productId, String productName, int availableItems, double price) {
+    public Product(String productId, String productName, int availableItems, long price) {
         this.productId = productId;
         this.productName = productName;
         this.availableItems = availableItems;
@@ -36,11 +38,14 @@ public abstract class Product {
         this.availableItems = availableItems;
     }
 
-    public double getPrice() {
+    /**
+     * Returns the price of one item in minor units, see {@link Money}.
+     */
+    public long getPrice() {
         return price;
     }
 
-    public void setPrice(double price) {
+    public void setPrice(long price) {
         this.price = price;
     }
 
@@ -54,7 +59,7 @@ public abstract class Product {
                 "Product ID: " + getProductId() + "\n" +
                 "Product Name: " + getProductName() + "\n" +
                 "Available Items: " + getAvailableItems() + "\n" +
-                "Price: " + getPrice() + "\n" ;
+                "Price: " + Money.format(getPrice()) + "\n" ;
     }
 }
 
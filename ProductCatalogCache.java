@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the parsed contents of the product file in memory so repeated reads do not go back to disk.
+ * <p>
+ * Reads take no lock and make no system call: the parsed products are published through a volatile
+ * field. Whether the file has changed on disk is checked by {@link #checkForChanges()}, which the owner
+ * runs every few seconds in the background; a change, or {@link #invalidate()}, makes the next read
+ * parse the file again. An owner that changes the products in memory must hold off its changes while the
+ * file is parsed, or they would go to the products being replaced.
+ */
+public class ProductCatalogCache {
+    private final Path filePath;
+    private final Supplier<ProductRepository> loader;
+
+    private volatile ProductRepository products;
+    // Set when the file has changed on disk since it was parsed, and when the cache is invalidated
+    private volatile boolean fileChanged;
+    private volatile boolean invalidated;
+    // Modification time and size of the file when it was parsed or last written from memory
+    private long lastModified = -1;
+    private long size = -1;
+
+    // Counters to show how the cache is being used
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    /**
+     * Constructor for ProductCatalogCache.
+     *
+     * @param filePath The product file watched by the cache.
+     * @param loader   Parses the product file when the cache is empty or out of date.
+     */
+    public ProductCatalogCache(Path filePath, Supplier<ProductRepository> loader) {
+        this.filePath = filePath;
+        this.loader = loader;
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.gauge("catalog.cache.hits", hits::sum);
+        metrics.gauge("catalog.cache.misses", misses::sum);
+        metrics.gauge("catalog.cache.reloads", reloads::sum);
+    }
+
+    /**
+     * Returns the cached products, parsing the file first if it is not loaded yet or is out of date.
+     *
+     * @return The indexed products in the file.
+     */
+    public ProductRepository getProducts() {
+        ProductRepository current = getIfCurrent();
+        return current != null ? current : load();
+    }
+
+    /**
+     * Returns the cached products if they are loaded and up to date, or null if the next read would
+     * parse the file. Lets the owner take its own lock before a reload, see {@link #getProducts()}.
+     */
+    public ProductRepository getIfCurrent() {
+        ProductRepository current = products;
+        if (current != null && !fileChanged && !invalidated) {
+            hits.increment();
+            return current;
+        }
+        return null;
+    }
+
+    private synchronized ProductRepository load() {
+        // Another thread may have loaded the file while this one waited
+        if (products != null && !fileChanged && !invalidated) {
+            hits.increment();
+            return products;
+        }
+        if (products == null) {
+            misses.increment();
+        } else {
+            reloads.increment();
+        }
+
+        long[] signature = readSignature();
+        fileChanged = false;
+        invalidated = false;
+        ProductRepository loaded = loader.get();
+        lastModified = signature[0];
+        size = signature[1];
+        products = loaded;
+        return loaded;
+    }
+
+    /**
+     * Checks whether the products have been parsed, without loading them.
+     */
+    public boolean isLoaded() {
+        return products != null;
+    }
+
+    /**
+     * Marks the cached products as out of date so the next read parses the file again.
+     */
+    public void invalidate() {
+        invalidated = true;
+    }
+
+    /**
+     * Compares the file's modification time and size with those it had when it was parsed, and marks
+     * the cached products as out of date if they differ. Meant to run in the background, off the read path.
+     */
+    public synchronized void checkForChanges() {
+        if (products == null) {
+            return;
+        }
+        long[] signature = readSignature();
+        if (signature[0] != lastModified || signature[1] != size) {
+            fileChanged = true;
+        }
+    }
+
+    /**
+     * Records the current state of the file as matching the cached products,
+     * after the products in memory have been written to it.
+     */
+    public synchronized void markCurrent() {
+        long[] signature = readSignature();
+        lastModified = signature[0];
+        size = signature[1];
+        // A check that ran between the write and this call saw our own write, not an outside change
+        fileChanged = false;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getReloads() {
+        return reloads.sum();
+    }
+
+    /**
+     * Reads the modification time and size of the file, or -1 for both if it does not exist.
+     */
+    private long[] readSignature() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+            return new long[]{attributes.lastModifiedTime().toMillis(), attributes.size()};
+        } catch (NoSuchFileException e) {
+            return new long[]{-1, -1};
+        } catch (IOException e) {
+            System.err.println("Could not read attributes of " + filePath + ": " + e.getMessage());
+            return new long[]{-1, -1};
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Catalog cache: hits=" + getHits() + ", misses=" + getMisses() + ", reloads=" + getReloads();
+    }
+}
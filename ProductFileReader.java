@@ -0,0 +1,157 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads products from a productList.txt style file one at a time, without loading the whole file.
+ * Only the product being read is held in memory, so filtering, counting or exporting a large catalog
+ * runs in bounded memory and the first product is available as soon as it has been parsed.
+ * <p>
+ * Each record runs from its header line to the next one, so a broken record never swallows the one
+ * after it. By default a broken record stops the read; a reader given an error handler reports it
+ * and carries on with the next record, like {@link ParallelProductFileParser}.
+ */
+public class ProductFileReader implements Iterator<Product>, Closeable {
+    private final BufferedReader reader;
+    // Told about each record that cannot be parsed; null to fail on the first one
+    private final Consumer<String> onInvalidRecord;
+    private Product next;
+    private boolean finished;
+    // The header line that ended the previous record, and its line number
+    private String pendingHeader;
+    private long pendingHeaderLine;
+    private long lineNumber;
+
+    /**
+     * Opens a product file for reading.
+     *
+     * @param path The product file.
+     */
+    public ProductFileReader(Path path) throws IOException {
+        this(path, null);
+    }
+
+    /**
+     * Opens a product file for reading, skipping records that cannot be parsed.
+     *
+     * @param path            The product file.
+     * @param onInvalidRecord Told the line number and reason of each skipped record, e.g. "line 12: ...".
+     */
+    public ProductFileReader(Path path, Consumer<String> onInvalidRecord) throws IOException {
+        this.reader = Files.newBufferedReader(path);
+        this.onInvalidRecord = onInvalidRecord;
+    }
+
+    /**
+     * Streams the products in a file in file order. The file is closed when the stream is closed,
+     * so the stream should be used in a try-with-resources block.
+     *
+     * @param path The product file.
+     * @return A sequential stream of the products in the file.
+     */
+    public static Stream<Product> stream(Path path) throws IOException {
+        return stream(path, null);
+    }
+
+    /**
+     * Streams the products in a file in file order, skipping records that cannot be parsed.
+     *
+     * @param path            The product file.
+     * @param onInvalidRecord Told the line number and reason of each skipped record, or null to fail instead.
+     * @return A sequential stream of the valid products in the file.
+     */
+    public static Stream<Product> stream(Path path, Consumer<String> onInvalidRecord) throws IOException {
+        ProductFileReader productReader = new ProductFileReader(path, onInvalidRecord);
+        Spliterator<Product> spliterator = Spliterators.spliteratorUnknownSize(productReader,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                productReader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * @throws UncheckedIOException if the file cannot be read, or a record is not in the expected format
+     *                              and this reader has no error handler.
+     */
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !finished) {
+                String header = pendingHeader;
+                long headerLine = pendingHeaderLine;
+                pendingHeader = null;
+                if (header == null) {
+                    header = reader.readLine();
+                    headerLine = ++lineNumber;
+                    if (header == null) {
+                        finished = true;
+                        break;
+                    }
+                }
+                if (!isHeader(header)) {
+                    continue;
+                }
+
+                // Collect the record's lines up to the next header, then parse them on their own
+                StringBuilder record = new StringBuilder(256);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (isHeader(line)) {
+                        pendingHeader = line;
+                        pendingHeaderLine = lineNumber;
+                        break;
+                    }
+                    record.append(line).append('\n');
+                }
+                try {
+                    next = ProductTextFormat.readProduct(header, new BufferedReader(new StringReader(record.toString())));
+                } catch (IOException | RuntimeException e) {
+                    String error = "line " + headerLine + ": " + e.getMessage();
+                    if (onInvalidRecord == null) {
+                        throw new UncheckedIOException(new IOException("Invalid product at " + error, e));
+                    }
+                    onInvalidRecord.accept(error);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return next != null;
+    }
+
+    private static boolean isHeader(String line) {
+        return line.equals(ProductTextFormat.ELECTRONICS_HEADER) || line.equals(ProductTextFormat.CLOTHING_HEADER);
+    }
+
+    @Override
+    public Product next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Product product = next;
+        next = null;
+        return product;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        reader.close();
+    }
+}
@@ -0,0 +1,618 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Imports products in bulk from a CSV or JSON file, adding new products and replacing existing ones.
+ * <p>
+ * CSV files start with a header row naming the columns, in any order:
+ * <pre>
+ * type,productId,productName,availableItems,price,brand,warrantyPeriod,size,color
+ * Electronics,E100,Phone X,12,49999.00,Samsung,2,,
+ * Clothing,C200,"Shirt, slim fit",30,1999.99,,,M,Blue
+ * </pre>
+ * Fields may be quoted, with quotes inside doubled; a record cannot span lines. JSON files hold objects with
+ * the same field names, either in one array or one object per line (JSON Lines).
+ * <p>
+ * The file is read on the calling thread and cut into batches. Batches are parsed and validated on a pool of
+ * workers, with the same {@link ProductValidator} rules as adding a product from the menu: at least one item
+ * available, a price that is not negative, a warranty that is not negative and a clothing size from S to XXL. Valid products are added
+ * to the catalog one batch at a time, in file order, through {@link WestminsterShoppingManager#addProducts},
+ * so a later record for an ID replaces an earlier one and each batch is logged with a single wait. Only a few
+ * batches are read ahead of the one being added, so a file of any size is imported in bounded memory.
+ * <p>
+ * Records that cannot be imported are written to a reject report, a CSV file of the record number, the
+ * reason and the record itself.
+ * <p>
+ * Settings: {@code -Dwsm.import.batchSize} (5,000 records), {@code -Dwsm.import.threads} (one per core).
+ */
+public class ProductImporter {
+    private static final int BATCH_SIZE = Integer.getInteger("wsm.import.batchSize", 5_000);
+    private static final int THREADS = Integer.getInteger("wsm.import.threads", Runtime.getRuntime().availableProcessors());
+    // Batches parsed ahead of the one being added to the catalog
+    private static final int BATCHES_AHEAD = 2 * THREADS;
+
+    private static final LongAdder RECORDS = MetricsRegistry.getDefault().counter("import.records");
+    private static final LongAdder REJECTED = MetricsRegistry.getDefault().counter("import.rejected");
+    private static final LatencyHistogram BATCH_TIME = MetricsRegistry.getDefault().histogram("import.batch");
+
+    private static final String[] FIELDS = {"type", "productId", "productName", "availableItems", "price",
+            "brand", "warrantyPeriod", "size", "color"};
+
+    private final WestminsterShoppingManager shoppingManager;
+
+    /**
+     * Constructor for ProductImporter.
+     *
+     * @param shoppingManager The manager whose catalog the products are added to.
+     */
+    public ProductImporter(WestminsterShoppingManager shoppingManager) {
+        this.shoppingManager = shoppingManager;
+    }
+
+    /**
+     * Imports a file, choosing CSV or JSON by its extension (.csv, or .json, .jsonl or .ndjson).
+     *
+     * @param file         The file to import.
+     * @param rejectReport Where to write the records that could not be imported.
+     * @return What was imported.
+     */
+    public Summary importFile(Path file, Path rejectReport) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        boolean csv = name.endsWith(".csv");
+        if (!csv && !name.endsWith(".json") && !name.endsWith(".jsonl") && !name.endsWith(".ndjson")) {
+            throw new IOException("Unsupported file type, expected .csv or .json: " + file);
+        }
+
+        long start = System.nanoTime();
+        Summary summary = new Summary();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "product-importer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             Writer rejects = new BufferedWriter(Files.newBufferedWriter(rejectReport, StandardCharsets.UTF_8), 1 << 16)) {
+            rejects.write("record,reason,data\n");
+            RecordSource source = csv ? new CsvSource(reader) : new JsonSource(reader);
+            Deque<Future<Batch>> inFlight = new ArrayDeque<>();
+
+            List<RawRecord> records = new ArrayList<>(BATCH_SIZE);
+            RawRecord record;
+            while ((record = source.next()) != null) {
+                records.add(record);
+                if (records.size() == BATCH_SIZE) {
+                    List<RawRecord> batch = records;
+                    inFlight.add(workers.submit(() -> source.parse(batch)));
+                    records = new ArrayList<>(BATCH_SIZE);
+                    if (inFlight.size() > BATCHES_AHEAD) {
+                        commit(inFlight.removeFirst(), rejects, summary);
+                    }
+                }
+            }
+            if (!records.isEmpty()) {
+                List<RawRecord> batch = records;
+                inFlight.add(workers.submit(() -> source.parse(batch)));
+            }
+            while (!inFlight.isEmpty()) {
+                commit(inFlight.removeFirst(), rejects, summary);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        summary.nanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    // Adds a parsed batch to the catalog and reports its rejects; batches are committed in file order
+    private void commit(Future<Batch> pending, Writer rejects, Summary summary) throws IOException {
+        Batch batch;
+        try {
+            batch = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed: " + e.getCause(), e.getCause());
+        }
+
+        long start = System.nanoTime();
+        List<Product> refused;
+        try {
+            refused = shoppingManager.addProducts(batch.products);
+        } catch (UncheckedIOException e) {
+            throw new IOException("Could not save imported products after record " + summary.records, e.getCause());
+        }
+        for (Product product : refused) {
+            batch.rejects.add(new Reject(batch.recordNumbers.get(product), "Catalog capacity reached", product.getProductId()));
+        }
+        for (Reject reject : batch.rejects) {
+            rejects.write(reject.recordNumber + "," + csvField(reject.reason) + "," + csvField(reject.data) + "\n");
+        }
+        BATCH_TIME.recordSince(start);
+
+        int records = batch.products.size() + batch.rejects.size() - refused.size();
+        summary.records += records;
+        summary.imported += batch.products.size() - refused.size();
+        summary.rejected += batch.rejects.size();
+        RECORDS.add(records);
+        REJECTED.add(batch.rejects.size());
+    }
+
+    /**
+     * Builds a product from the text of its fields, checking it the way the menu does.
+     *
+     * @param fields The field values by name; missing fields are null.
+     * @return The product.
+     * @throws IllegalArgumentException With the reason, if the fields do not make a valid product.
+     */
+    static Product toProduct(Map<String, String> fields) {
+        String type = required(fields, "type");
+        String productId = required(fields, "productId");
+        String productName = optional(fields, "productName");
+
+        int availableItems = parseInt(required(fields, "availableItems"), "availableItems");
+        long price;
+        try {
+            price = Money.parse(required(fields, "price"));
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("price is not a valid amount: " + fields.get("price"));
+        }
+
+        Product product;
+        if (type.equalsIgnoreCase("Electronics")) {
+            int warrantyPeriod = parseInt(required(fields, "warrantyPeriod"), "warrantyPeriod");
+            product = new Electronics(productId, productName, availableItems, price, optional(fields, "brand"), warrantyPeriod);
+        } else if (type.equalsIgnoreCase("Clothing")) {
+            String size = ProductValidator.checkSize(required(fields, "size"));
+            product = new Clothing(productId, productName, availableItems, price, size, optional(fields, "color"));
+        } else {
+            throw new IllegalArgumentException("type must be Electronics or Clothing: " + type);
+        }
+        ProductValidator.check(product);
+        return product;
+    }
+
+    private static String required(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException(name + " is missing");
+        }
+        return value.trim();
+    }
+
+    private static String optional(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        return value == null ? "" : value.trim();
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a whole number: " + value);
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Command-line entry point: {@code java ProductImporter <file> [product file]}. Imports into
+     * productList.txt by default, writes the reject report next to the imported file and folds the
+     * imported products into the product file.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java ProductImporter <file.csv|file.json> [product file]");
+            System.exit(1);
+        }
+        Path file = Paths.get(args[0]);
+        WestminsterShoppingManager shoppingManager = args.length > 1
+                ? new WestminsterShoppingManager(Paths.get(args[1])) : new WestminsterShoppingManager();
+        Path rejectReport = file.resolveSibling(file.getFileName() + ".rejects.csv");
+        Summary summary = new ProductImporter(shoppingManager).importFile(file, rejectReport);
+        shoppingManager.checkpoint();
+        System.out.println(summary);
+        if (summary.getRejected() > 0) {
+            System.out.println("Rejected records are listed in " + rejectReport + ".");
+        }
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static class Summary {
+        private long records;
+        private long imported;
+        private long rejected;
+        private long nanos;
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getImported() {
+            return imported;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = nanos / 1e9;
+            return String.format("Imported %d of %d records (%d rejected) in %.2f s, %.0f records per second.",
+                    imported, records, rejected, seconds, seconds > 0 ? records / seconds : 0);
+        }
+    }
+
+    /**
+     * One record as read from the file, before parsing.
+     */
+    private static class RawRecord {
+        private final long recordNumber;
+        private final String text;
+
+        private RawRecord(long recordNumber, String text) {
+            this.recordNumber = recordNumber;
+            this.text = text;
+        }
+    }
+
+    private static class Reject {
+        private final long recordNumber;
+        private final String reason;
+        private final String data;
+
+        private Reject(long recordNumber, String reason, String data) {
+            this.recordNumber = recordNumber;
+            this.reason = reason;
+            this.data = data;
+        }
+    }
+
+    /**
+     * A parsed batch: the valid products in file order, and the records that were not.
+     */
+    private static class Batch {
+        private final List<Product> products = new ArrayList<>();
+        private final Map<Product, Long> recordNumbers = new HashMap<>();
+        private final List<Reject> rejects = new ArrayList<>();
+
+        private void parsed(RawRecord record, Map<String, String> fields) {
+            try {
+                Product product = toProduct(fields);
+                products.add(product);
+                recordNumbers.put(product, record.recordNumber);
+            } catch (IllegalArgumentException e) {
+                rejects.add(new Reject(record.recordNumber, e.getMessage(), record.text));
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a file one at a time, and parses batches of them on the workers.
+     */
+    private interface RecordSource {
+        // Called on the reading thread
+        RawRecord next() throws IOException;
+
+        // Called on a worker
+        Batch parse(List<RawRecord> records);
+    }
+
+    /**
+     * CSV records: the header names the columns, then one record per line.
+     */
+    private static class CsvSource implements RecordSource {
+        private final BufferedReader reader;
+        private final String[] columns;
+        private long lineNumber;
+
+        private CsvSource(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            String header = reader.readLine();
+            lineNumber = 1;
+            if (header == null) {
+                columns = new String[0];
+                return;
+            }
+            // Drop a byte order mark left by spreadsheet programs
+            if (header.startsWith("\uFEFF")) {
+                header = header.substring(1);
+            }
+            List<String> names = splitLine(header);
+            columns = new String[names.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = canonicalName(names.get(i).trim());
+            }
+        }
+
+        @Override
+        public RawRecord next() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (!line.isBlank()) {
+                    return new RawRecord(lineNumber, line);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Batch parse(List<RawRecord> records) {
+            Batch batch = new Batch();
+            Map<String, String> fields = new HashMap<>();
+            for (RawRecord record : records) {
+                fields.clear();
+                try {
+                    List<String> values = splitLine(record.text);
+                    for (int i = 0; i < values.size() && i < columns.length; i++) {
+                        fields.put(columns[i], values.get(i));
+                    }
+                } catch (IllegalArgumentException e) {
+                    batch.rejects.add(new Reject(record.recordNumber, e.getMessage(), record.text));
+                    continue;
+                }
+                batch.parsed(record, fields);
+            }
+            return batch;
+        }
+
+        private static List<String> splitLine(String line) {
+            List<String> values = new ArrayList<>(FIELDS.length);
+            StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        value.append(c);
+                    } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    values.add(value.toString());
+                    value.setLength(0);
+                } else {
+                    value.append(c);
+                }
+            }
+            if (quoted) {
+                throw new IllegalArgumentException("Unterminated quoted field");
+            }
+            values.add(value.toString());
+            return values;
+        }
+    }
+
+    /**
+     * JSON records: objects with string, number, boolean or null values, in an array or one per line.
+     */
+    private static class JsonSource implements RecordSource {
+        private final Reader reader;
+        private long objectNumber;
+
+        private JsonSource(Reader reader) {
+            this.reader = reader;
+        }
+
+        // Finds the next top-level object by matching braces outside strings; parsing is left to the workers
+        @Override
+        public RawRecord next() throws IOException {
+            int c;
+            while ((c = reader.read()) != -1 && c != '{') {
+                if (c != '[' && c != ']' && c != ',' && !Character.isWhitespace(c)) {
+                    throw new IOException("Expected a JSON object after object " + objectNumber + " but found '" + (char) c + "'");
+                }
+            }
+            if (c == -1) {
+                return null;
+            }
+            StringBuilder text = new StringBuilder(128).append('{');
+            int depth = 1;
+            boolean inString = false;
+            while (depth > 0 && (c = reader.read()) != -1) {
+                text.append((char) c);
+                if (inString) {
+                    if (c == '\\') {
+                        int escaped = reader.read();
+                        if (escaped != -1) {
+                            text.append((char) escaped);
+                        }
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+            if (depth > 0) {
+                throw new IOException("JSON object " + (objectNumber + 1) + " is not closed");
+            }
+            return new RawRecord(++objectNumber, text.toString());
+        }
+
+        @Override
+        public Batch parse(List<RawRecord> records) {
+            Batch batch = new Batch();
+            for (RawRecord record : records) {
+                Map<String, String> fields;
+                try {
+                    fields = new FlatObjectParser(record.text).parse();
+                } catch (IllegalArgumentException e) {
+                    batch.rejects.add(new Reject(record.recordNumber, e.getMessage(), record.text));
+                    continue;
+                }
+                batch.parsed(record, fields);
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Parses one JSON object whose values are all strings, numbers, booleans or null.
+     */
+    private static class FlatObjectParser {
+        private final String text;
+        private int position;
+
+        private FlatObjectParser(String text) {
+            this.text = text;
+        }
+
+        private Map<String, String> parse() {
+            Map<String, String> fields = new HashMap<>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                return fields;
+            }
+            do {
+                skipWhitespace();
+                String name = canonicalName(readString());
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                fields.put(name, readValue());
+                skipWhitespace();
+            } while (tryRead(','));
+            expect('}');
+            return fields;
+        }
+
+        private String readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("Nested objects and arrays are not supported");
+            }
+            int start = position;
+            while (position < text.length() && ",}".indexOf(text.charAt(position)) < 0
+                    && !Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("Missing value at character " + start);
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n' -> value.append('\n');
+                    case 't' -> value.append('\t');
+                    case 'r' -> value.append('\r');
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'u' -> {
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Invalid \\u escape");
+                        }
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                    }
+                    default -> value.append(escaped);
+                }
+            }
+            throw new IllegalArgumentException("Unterminated string");
+        }
+
+        private void expect(char expected) {
+            if (!tryRead(expected)) {
+                throw new IllegalArgumentException("Expected '" + expected + "' at character " + position);
+            }
+        }
+
+        private boolean tryRead(char expected) {
+            if (position < text.length() && text.charAt(position) == expected) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private char peek() {
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("Unexpected end of object");
+            }
+            return text.charAt(position);
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+
+    // Field names are matched ignoring case, so "ProductID" and "productId" are the same column
+    private static String canonicalName(String name) {
+        for (String field : FIELDS) {
+            if (field.equalsIgnoreCase(name)) {
+                return field;
+            }
+        }
+        return name;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * A combination of conditions on products, run with {@link ProductRepository#query(ProductQuery)}.
+ * Conditions left unset match every product; the ones that are set must all hold. Ranges include their
+ * lower bound and exclude their upper bound, so "Electronics under Rs.5000 with fewer than 3 in stock" is
+ * <pre>
+ * new ProductQuery().type("Electronics").priceBelow(Money.parse("5000")).availableItemsBelow(3)
+ * </pre>
+ */
+public class ProductQuery {
+    private String type;
+    private String brand;
+    private String size;
+    private String color;
+    private long minPrice = Long.MIN_VALUE;
+    private long maxPrice = Long.MAX_VALUE;
+    private int minAvailableItems = Integer.MIN_VALUE;
+    private int maxAvailableItems = Integer.MAX_VALUE;
+
+    /**
+     * Only products of a category, e.g. "Electronics" or "Clothing" (case-insensitive).
+     */
+    public ProductQuery type(String type) {
+        this.type = type;
+        return this;
+    }
+
+    public ProductQuery brand(String brand) {
+        this.brand = brand;
+        return this;
+    }
+
+    public ProductQuery size(String size) {
+        this.size = size;
+        return this;
+    }
+
+    public ProductQuery color(String color) {
+        this.color = color;
+        return this;
+    }
+
+    /**
+     * Only products priced at least this much, in minor units (see {@link Money}).
+     */
+    public ProductQuery priceAtLeast(long minPrice) {
+        this.minPrice = minPrice;
+        return this;
+    }
+
+    /**
+     * Only products priced under this much, in minor units.
+     */
+    public ProductQuery priceBelow(long maxPrice) {
+        this.maxPrice = maxPrice;
+        return this;
+    }
+
+    /**
+     * Only products with at least this many items available.
+     */
+    public ProductQuery availableItemsAtLeast(int minAvailableItems) {
+        this.minAvailableItems = minAvailableItems;
+        return this;
+    }
+
+    /**
+     * Only products with fewer than this many items available.
+     */
+    public ProductQuery availableItemsBelow(int maxAvailableItems) {
+        this.maxAvailableItems = maxAvailableItems;
+        return this;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getBrand() {
+        return brand;
+    }
+
+    public String getSize() {
+        return size;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    public long getMinPrice() {
+        return minPrice;
+    }
+
+    public long getMaxPrice() {
+        return maxPrice;
+    }
+
+    public int getMinAvailableItems() {
+        return minAvailableItems;
+    }
+
+    public int getMaxAvailableItems() {
+        return maxAvailableItems;
+    }
+
+    public boolean hasPriceRange() {
+        return minPrice != Long.MIN_VALUE || maxPrice != Long.MAX_VALUE;
+    }
+
+    public boolean hasAvailableItemsRange() {
+        return minAvailableItems != Integer.MIN_VALUE || maxAvailableItems != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Checks every condition against one product.
+     */
+    public boolean matches(Product product) {
+        if (type != null && !type.trim().equalsIgnoreCase(product.getType())) {
+            return false;
+        }
+        if (brand != null && !(product instanceof Electronics electronics && equalsKey(brand, electronics.getBrand()))) {
+            return false;
+        }
+        if ((size != null || color != null) && !(product instanceof Clothing clothing
+                && (size == null || equalsKey(size, clothing.getSize())) && (color == null || equalsKey(color, clothing.getColor())))) {
+            return false;
+        }
+        long price = product.getPrice();
+        int availableItems = product.getAvailableItems();
+        return price >= minPrice && price < maxPrice && availableItems >= minAvailableItems && availableItems < maxAvailableItems;
+    }
+
+    // Attribute values are compared the way the repository indexes them: trimmed and ignoring case
+    private static boolean equalsKey(String wanted, String actual) {
+        return actual != null && wanted.trim().equalsIgnoreCase(actual.trim());
+    }
+}
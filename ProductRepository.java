@@ -0,0 +1,520 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Holds products keyed by product ID, with secondary indexes on category, brand, size and color,
+ * sorted indexes on price and available items, and a {@link ProductSearchIndex} for searching by words
+ * of the ID, name, brand and color. The sorted and search indexes are built the first time they are
+ * used, so loading a catalog that is never queried or searched does not pay for them.
+ * Lookups by ID and by any indexed attribute are constant-time regardless of the catalog size, and
+ * {@link #query(ProductQuery)} combines them with price and stock ranges.
+ * Stock and prices should be changed with {@link #updateStock} and {@link #updatePrice}, and other indexed
+ * attributes by adding the product again, so the indexes stay in step.
+ * <p>
+ * The repository is safe to share between threads: lookups run in parallel under a read lock and
+ * changes take a write lock. Collections handed out are snapshots, so they can be iterated while
+ * the repository changes.
+ */
+public class ProductRepository implements Iterable<Product> {
+    private final Map<String, Product> productsById;
+    private final Map<String, Bucket> productsByType = new HashMap<>();
+    private final Map<String, Bucket> productsByBrand = new HashMap<>();
+    private final Map<String, Bucket> productsBySize = new HashMap<>();
+    private final Map<String, Bucket> productsByColor = new HashMap<>();
+    // Sorted indexes, built by the first query like the search index
+    private final NavigableMap<Long, Set<Product>> productsByPrice = new TreeMap<>();
+    private final NavigableMap<Integer, Set<Product>> productsByAvailableItems = new TreeMap<>();
+    private boolean rangesIndexed;
+    // Built by the first search, so loading a catalog that is never searched does not pay for it
+    private ProductSearchIndex searchIndex;
+
+    // Sorted views handed out by sortedById, dropped whenever a product is added or removed. Only
+    // categories that have products get a view, so callers' strings cannot grow the map
+    private static final String ALL_TYPES = "";
+    private final Map<String, List<Product>> sortedViews = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ProductRepository() {
+        this(16);
+    }
+
+    /**
+     * Constructor for ProductRepository, sized for an expected number of products
+     * so loading a large catalog does not keep resizing the ID index.
+     *
+     * @param expectedSize The number of products the repository is expected to hold.
+     */
+    public ProductRepository(int expectedSize) {
+        productsById = new LinkedHashMap<>(Math.max(16, (int) (expectedSize / 0.75f) + 1));
+    }
+
+    /**
+     * Adds a product, replacing any product that already has the same ID.
+     *
+     * @param product The product to add.
+     * @return The product that was replaced, or null if the ID was new.
+     */
+    public Product add(Product product) {
+        lock.writeLock().lock();
+        try {
+            Product previous = productsById.put(product.getProductId(), product);
+            sortedViews.clear();
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(product);
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the product with the given ID.
+     *
+     * @param productId The ID of the product to remove.
+     * @return The removed product, or null if no product has that ID.
+     */
+    public Product remove(String productId) {
+        lock.writeLock().lock();
+        try {
+            Product removed = productsById.remove(productId);
+            if (removed != null) {
+                sortedViews.clear();
+                unindex(removed);
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the number of available items of a product, keeping the stock index in step.
+     *
+     * @return False if no product has that ID.
+     */
+    public boolean updateStock(String productId, int availableItems) {
+        lock.writeLock().lock();
+        try {
+            Product product = productsById.get(productId);
+            if (product == null) {
+                return false;
+            }
+            if (rangesIndexed) {
+                takeSorted(productsByAvailableItems, product.getAvailableItems(), product);
+                putSorted(productsByAvailableItems, availableItems, product);
+            }
+            product.setAvailableItems(availableItems);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the price of a product, keeping the price index in step.
+     *
+     * @return False if no product has that ID.
+     */
+    public boolean updatePrice(String productId, long price) {
+        lock.writeLock().lock();
+        try {
+            Product product = productsById.get(productId);
+            if (product == null) {
+                return false;
+            }
+            if (rangesIndexed) {
+                takeSorted(productsByPrice, product.getPrice(), product);
+                putSorted(productsByPrice, price, product);
+            }
+            product.setPrice(price);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Product findById(String productId) {
+        lock.readLock().lock();
+        try {
+            return productsById.get(productId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String productId) {
+        lock.readLock().lock();
+        try {
+            return productsById.containsKey(productId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the products of a category, e.g. "Electronics" or "Clothing" (case-insensitive).
+     */
+    public Collection<Product> findByType(String type) {
+        return lookup(productsByType, type);
+    }
+
+    public Collection<Product> findByBrand(String brand) {
+        return lookup(productsByBrand, brand);
+    }
+
+    public Collection<Product> findBySize(String size) {
+        return lookup(productsBySize, size);
+    }
+
+    public Collection<Product> findByColor(String color) {
+        return lookup(productsByColor, color);
+    }
+
+    /**
+     * Returns the products matching every condition of a query, sorted by product ID.
+     * <p>
+     * The query starts from whichever index narrows it down most: the products of the category, brand,
+     * size or color asked for, or the products in the price or stock range. Only those products are then
+     * checked against the other conditions, so the query never scans the whole catalog unless it has no
+     * conditions at all.
+     *
+     * @param query The conditions.
+     * @return A read-only list of the matching products.
+     */
+    public List<Product> query(ProductQuery query) {
+        lock.readLock().lock();
+        if (!rangesIndexed) {
+            buildIndex(this::buildRangeIndexes);
+        }
+        try {
+            if (query.getMinPrice() >= query.getMaxPrice() || query.getMinAvailableItems() >= query.getMaxAvailableItems()) {
+                return Collections.emptyList();
+            }
+            Collection<? extends Collection<Product>> candidates = List.of(productsById.values());
+            long candidateCount = productsById.size();
+
+            String[] keys = {query.getType(), query.getBrand(), query.getSize(), query.getColor()};
+            List<Map<String, Bucket>> indexes = List.of(productsByType, productsByBrand, productsBySize, productsByColor);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    Set<Product> products = bucket(indexes.get(i), keys[i]);
+                    if (products.size() < candidateCount) {
+                        candidates = List.of(products);
+                        candidateCount = products.size();
+                    }
+                }
+            }
+            if (query.hasPriceRange()) {
+                NavigableMap<Long, Set<Product>> range = productsByPrice.subMap(query.getMinPrice(), true, query.getMaxPrice(), false);
+                long count = countUpTo(range, candidateCount);
+                if (count < candidateCount) {
+                    candidates = range.values();
+                    candidateCount = count;
+                }
+            }
+            if (query.hasAvailableItemsRange()) {
+                NavigableMap<Integer, Set<Product>> range = productsByAvailableItems.subMap(query.getMinAvailableItems(), true, query.getMaxAvailableItems(), false);
+                long count = countUpTo(range, candidateCount);
+                if (count < candidateCount) {
+                    candidates = range.values();
+                }
+            }
+
+            List<Product> matches = new ArrayList<>();
+            for (Collection<Product> products : candidates) {
+                for (Product product : products) {
+                    if (query.matches(product)) {
+                        matches.add(product);
+                    }
+                }
+            }
+            matches.sort(Comparator.comparing(Product::getProductId));
+            return Collections.unmodifiableList(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the products by words of their ID, name, brand and color, allowing prefixes and typos.
+     *
+     * @param query The words to look for, e.g. "sams phon".
+     * @param type  The category to search, or null for all products.
+     * @param limit The maximum number of products to return.
+     * @return The best matching products, best first.
+     */
+    public List<Product> search(String query, String type, int limit) {
+        lock.readLock().lock();
+        if (searchIndex == null) {
+            buildIndex(this::buildSearchIndex);
+        }
+        try {
+            if (type == null) {
+                return searchIndex.search(query, null, limit);
+            }
+            Set<Product> products = bucket(productsByType, type);
+            return searchIndex.search(query, products::contains, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Called holding the read lock; swaps it for the write lock while indexing and hands the read lock back
+    private void buildIndex(Runnable build) {
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            build.run();
+            // Taking the read lock before letting go of the write lock keeps the index from changing in between
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The caller holds the write lock; another thread may have built the index while this one waited for it
+    private void buildSearchIndex() {
+        if (searchIndex == null) {
+            ProductSearchIndex index = new ProductSearchIndex();
+            for (Product product : productsById.values()) {
+                index.add(product);
+            }
+            searchIndex = index;
+        }
+    }
+
+    // The caller holds the write lock
+    private void buildRangeIndexes() {
+        if (!rangesIndexed) {
+            for (Product product : productsById.values()) {
+                putSorted(productsByPrice, product.getPrice(), product);
+                putSorted(productsByAvailableItems, product.getAvailableItems(), product);
+            }
+            rangesIndexed = true;
+        }
+    }
+
+    /**
+     * Returns a snapshot of all products in insertion order.
+     */
+    public Collection<Product> getAll() {
+        lock.readLock().lock();
+        try {
+            return List.copyOf(productsById.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the products of a category sorted by product ID. The sorted list is kept until
+     * the repository changes, so repeated calls do not sort again.
+     *
+     * @param type The category to list, or null for all products.
+     * @return A read-only list of the products sorted by ID.
+     */
+    public List<Product> sortedById(String type) {
+        String key = type == null ? ALL_TYPES : normalize(type);
+        List<Product> sorted = sortedViews.get(key);
+        if (sorted != null) {
+            return sorted;
+        }
+        lock.readLock().lock();
+        try {
+            Set<Product> products = type == null ? null : bucket(productsByType, type);
+            if (products != null && products.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // Writers are locked out, so the view built here is current until the next change clears it
+            sorted = new ArrayList<>(type == null ? productsById.values() : products);
+            sorted.sort(Comparator.comparing(Product::getProductId));
+            sorted = Collections.unmodifiableList(sorted);
+            sortedViews.put(key, sorted);
+            return sorted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return productsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            productsById.clear();
+            productsByType.clear();
+            productsByBrand.clear();
+            productsBySize.clear();
+            productsByColor.clear();
+            productsByPrice.clear();
+            productsByAvailableItems.clear();
+            rangesIndexed = false;
+            searchIndex = null;
+            sortedViews.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Product> iterator() {
+        return getAll().iterator();
+    }
+
+    private void index(Product product) {
+        if (searchIndex != null) {
+            searchIndex.add(product);
+        }
+        put(productsByType, product.getType(), product);
+        if (rangesIndexed) {
+            putSorted(productsByPrice, product.getPrice(), product);
+            putSorted(productsByAvailableItems, product.getAvailableItems(), product);
+        }
+        if (product instanceof Electronics electronics) {
+            put(productsByBrand, electronics.getBrand(), product);
+        } else if (product instanceof Clothing clothing) {
+            put(productsBySize, clothing.getSize(), product);
+            put(productsByColor, clothing.getColor(), product);
+        }
+    }
+
+    private void unindex(Product product) {
+        if (searchIndex != null) {
+            searchIndex.remove(product);
+        }
+        take(productsByType, product.getType(), product);
+        if (rangesIndexed) {
+            takeSorted(productsByPrice, product.getPrice(), product);
+            takeSorted(productsByAvailableItems, product.getAvailableItems(), product);
+        }
+        if (product instanceof Electronics electronics) {
+            take(productsByBrand, electronics.getBrand(), product);
+        } else if (product instanceof Clothing clothing) {
+            take(productsBySize, clothing.getSize(), product);
+            take(productsByColor, clothing.getColor(), product);
+        }
+    }
+
+    private void put(Map<String, Bucket> index, String key, Product product) {
+        if (key != null) {
+            Bucket products = index.computeIfAbsent(normalize(key), k -> new Bucket());
+            products.add(product);
+            products.snapshot = null;
+        }
+    }
+
+    private void take(Map<String, Bucket> index, String key, Product product) {
+        if (key == null) {
+            return;
+        }
+        String normalizedKey = normalize(key);
+        Bucket products = index.get(normalizedKey);
+        if (products != null) {
+            products.remove(product);
+            products.snapshot = null;
+            if (products.isEmpty()) {
+                index.remove(normalizedKey);
+            }
+        }
+    }
+
+    private <K> void putSorted(NavigableMap<K, Set<Product>> index, K key, Product product) {
+        index.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(product);
+    }
+
+    private <K> void takeSorted(NavigableMap<K, Set<Product>> index, K key, Product product) {
+        Set<Product> products = index.get(key);
+        if (products != null) {
+            products.remove(product);
+            if (products.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    // Counts the products in a range of a sorted index, giving up once there are at least limit of them
+    private static long countUpTo(NavigableMap<?, Set<Product>> range, long limit) {
+        long count = 0;
+        for (Set<Product> products : range.values()) {
+            count += products.size();
+            if (count >= limit) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    // Hands out the bucket's read-only copy, made by the first lookup after the bucket last changed
+    private Collection<Product> lookup(Map<String, Bucket> index, String key) {
+        lock.readLock().lock();
+        try {
+            Bucket products = key == null ? null : index.get(normalize(key));
+            if (products == null) {
+                return Collections.emptySet();
+            }
+            Collection<Product> snapshot = products.snapshot;
+            if (snapshot == null) {
+                snapshot = List.copyOf(products);
+                products.snapshot = snapshot;
+            }
+            return snapshot;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The caller holds the lock
+    private Set<Product> bucket(Map<String, Bucket> index, String key) {
+        if (key == null) {
+            return Collections.emptySet();
+        }
+        Set<Product> products = index.get(normalize(key));
+        return products == null ? Collections.emptySet() : products;
+    }
+
+    private static String normalize(String key) {
+        return key.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The products sharing one value of an indexed attribute, with a read-only copy handed out by the
+     * find methods. The copy is made by the first lookup after the bucket changes and then shared by every
+     * later lookup, so repeated lookups are constant-time, and callers can iterate it without the lock
+     * while the repository changes.
+     */
+    private static class Bucket extends LinkedHashSet<Product> {
+        private static final long serialVersionUID = 1L;
+
+        // Written under the read lock by concurrent lookups, which all build the same copy
+        private volatile Collection<Product> snapshot;
+    }
+}
@@ -0,0 +1,283 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Inverted index over the words of each product's ID, name, brand and color, for search-as-you-type.
+ * <p>
+ * A query matches the products that have, for every word of the query, a word that is equal to it,
+ * starts with it, or (for words of four letters or more) is one typo away from it: one letter added,
+ * dropped, changed, or two neighbouring letters swapped. Results are ranked by how the longest query
+ * word matched: exact matches first, then prefix matches, then typos. Only as many products as asked
+ * for are looked at once enough have matched, so a query costs about the same on any catalog size.
+ * <p>
+ * Words are kept sorted, so the words starting with a prefix are one range of the index. Typos are
+ * found through every word's one-letter deletions: two words one typo apart always share a deletion,
+ * or one is a deletion of the other.
+ * <p>
+ * The index is not thread-safe; {@link ProductRepository} keeps it under its own lock.
+ */
+public class ProductSearchIndex {
+    // Shorter words have too many neighbours one typo away to be worth matching
+    private static final int MIN_TYPO_LENGTH = 4;
+
+    // Word to the products containing it: a single Product, or a Set of them. Most words (IDs, model
+    // numbers) belong to one product, and a bare reference costs far less than a set per word.
+    private final NavigableMap<String, Object> postings = new TreeMap<>();
+    // One-letter deletion of a word to the words it came from; only for words of letters
+    private final Map<String, Set<String>> deletions = new HashMap<>();
+
+    /**
+     * Adds a product's words to the index.
+     */
+    public void add(Product product) {
+        for (String word : wordsOf(product)) {
+            Object products = postings.get(word);
+            if (products == null) {
+                postings.put(word, product);
+                indexDeletions(word);
+            } else if (products instanceof Product single) {
+                if (single != product) {
+                    Set<Product> set = new LinkedHashSet<>();
+                    set.add(single);
+                    set.add(product);
+                    postings.put(word, set);
+                }
+            } else {
+                productSet(products).add(product);
+            }
+        }
+    }
+
+    /**
+     * Removes a product's words from the index.
+     */
+    public void remove(Product product) {
+        for (String word : wordsOf(product)) {
+            Object products = postings.get(word);
+            if (products == product) {
+                postings.remove(word);
+                unindexDeletions(word);
+            } else if (products instanceof Set) {
+                Set<Product> set = productSet(products);
+                set.remove(product);
+                if (set.size() == 1) {
+                    postings.put(word, set.iterator().next());
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+        deletions.clear();
+    }
+
+    /**
+     * Searches the index.
+     *
+     * @param query  The words to look for, e.g. "sams phon" or "E00012".
+     * @param filter Which products may be returned, or null for any.
+     * @param limit  The maximum number of products to return.
+     * @return The best matching products, best first.
+     */
+    public List<Product> search(String query, Predicate<Product> filter, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // The longest word is usually the most selective, so its matches are the candidates
+        String driver = terms.get(0);
+        for (String term : terms) {
+            if (term.length() > driver.length()) {
+                driver = term;
+            }
+        }
+        List<String> others = new ArrayList<>(terms);
+        others.remove(driver);
+
+        List<Product> results = new ArrayList<>(Math.min(limit, 64));
+        Set<Product> seen = new HashSet<>();
+        // Exact and prefix matches: the range of words starting with the driver, which begins at the driver itself
+        for (Object products : postings.subMap(driver, true, driver + Character.MAX_VALUE, false).values()) {
+            if (collect(products, others, filter, limit, seen, results)) {
+                return results;
+            }
+        }
+        for (String word : wordsOneTypoFrom(driver)) {
+            if (collect(postings.get(word), others, filter, limit, seen, results)) {
+                return results;
+            }
+        }
+        return results;
+    }
+
+    // Adds the products that match the other query words; true once the limit is reached
+    private boolean collect(Object products, List<String> others, Predicate<Product> filter, int limit,
+                            Set<Product> seen, List<Product> results) {
+        Collection<Product> candidates = products instanceof Product single ? List.of(single) : productSet(products);
+        for (Product product : candidates) {
+            if (!seen.add(product) || (filter != null && !filter.test(product)) || !matchesAll(product, others)) {
+                continue;
+            }
+            results.add(product);
+            if (results.size() >= limit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAll(Product product, List<String> terms) {
+        if (terms.isEmpty()) {
+            return true;
+        }
+        Set<String> words = wordsOf(product);
+        for (String term : terms) {
+            boolean matched = false;
+            for (String word : words) {
+                if (word.startsWith(term) || (isTypoCandidate(term) && isOneTypoApart(term, word))) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Indexed words one typo away from a query word, not counting the word itself
+    private Set<String> wordsOneTypoFrom(String term) {
+        if (!isTypoCandidate(term)) {
+            return Collections.emptySet();
+        }
+        Set<String> candidates = new LinkedHashSet<>(deletions.getOrDefault(term, Collections.emptySet()));
+        for (String deletion : deletionsOf(term)) {
+            if (postings.containsKey(deletion)) {
+                candidates.add(deletion);
+            }
+            candidates.addAll(deletions.getOrDefault(deletion, Collections.emptySet()));
+        }
+        // Sharing a deletion can also mean two typos apart (e.g. "abcd" and "bcde"), so check each candidate
+        candidates.removeIf(word -> word.equals(term) || word.startsWith(term) || !isOneTypoApart(term, word));
+        return candidates;
+    }
+
+    private void indexDeletions(String word) {
+        if (isTypoCandidate(word)) {
+            for (String deletion : deletionsOf(word)) {
+                deletions.computeIfAbsent(deletion, d -> new HashSet<>(4)).add(word);
+            }
+        }
+    }
+
+    private void unindexDeletions(String word) {
+        if (isTypoCandidate(word)) {
+            for (String deletion : deletionsOf(word)) {
+                Set<String> words = deletions.get(deletion);
+                if (words != null && words.remove(word) && words.isEmpty()) {
+                    deletions.remove(deletion);
+                }
+            }
+        }
+    }
+
+    private static Set<String> deletionsOf(String word) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i < word.length(); i++) {
+            result.add(word.substring(0, i) + word.substring(i + 1));
+        }
+        return result;
+    }
+
+    private static boolean isTypoCandidate(String word) {
+        if (word.length() < MIN_TYPO_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isLetter(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // True if one letter added, dropped or changed, or two neighbouring letters swapped, turns a into b
+    private static boolean isOneTypoApart(String a, String b) {
+        int lengthDifference = a.length() - b.length();
+        if (Math.abs(lengthDifference) > 1) {
+            return false;
+        }
+        int start = 0;
+        while (start < a.length() && start < b.length() && a.charAt(start) == b.charAt(start)) {
+            start++;
+        }
+        int endA = a.length();
+        int endB = b.length();
+        while (endA > start && endB > start && a.charAt(endA - 1) == b.charAt(endB - 1)) {
+            endA--;
+            endB--;
+        }
+        int differentA = endA - start;
+        int differentB = endB - start;
+        if (differentA <= 1 && differentB <= 1) {
+            return differentA + differentB > 0;
+        }
+        return differentA == 2 && differentB == 2
+                && a.charAt(start) == b.charAt(start + 1) && a.charAt(start + 1) == b.charAt(start);
+    }
+
+    private static Set<String> wordsOf(Product product) {
+        Set<String> words = new LinkedHashSet<>();
+        addWords(words, product.getProductId());
+        addWords(words, product.getProductName());
+        if (product instanceof Electronics electronics) {
+            addWords(words, electronics.getBrand());
+        } else if (product instanceof Clothing clothing) {
+            addWords(words, clothing.getColor());
+        }
+        return words;
+    }
+
+    /**
+     * Splits text into lower-case words of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        addWords(words, text);
+        return words;
+    }
+
+    private static void addWords(Collection<String> words, String text) {
+        if (text == null) {
+            return;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordCharacter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordCharacter && start < 0) {
+                start = i;
+            } else if (!wordCharacter && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<Product> productSet(Object products) {
+        return (Set<Product>) products;
+    }
+}
@@ -0,0 +1,151 @@
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.AbstractTableModel;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Table model that reads directly from a list of products.
+ * Cell values are built on demand when a row is painted, so only the visible rows are ever formatted.
+ */
+public class ProductTableModel extends AbstractTableModel {
+    // Products with fewer items than this are highlighted in the table
+    public static final int LOW_STOCK_THRESHOLD = 3;
+
+    private static final String[] COLUMN_NAMES = {"Product ID", "Name", "Category", "Price(\u00a3)", "Info"};
+
+    private List<Product> products = Collections.emptyList();
+
+    // Where the number of available items of a product comes from
+    private ToIntFunction<Product> stockLevel = Product::getAvailableItems;
+
+    // Low-stock flags per row, worked out the first time a row is asked for after the row last changed
+    private final BitSet evaluatedRows = new BitSet();
+    private final BitSet lowStockRows = new BitSet();
+
+    /**
+     * Replaces the products shown in the table. The list is used as is, not copied.
+     *
+     * @param products The products to show, in display order.
+     */
+    public void setProducts(List<Product> products) {
+        this.products = products;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Sets where the number of available items of a product is read from, for example
+     * the stock still free to reserve rather than the stock in the catalog.
+     *
+     * @param stockLevel Returns the available items of a product.
+     */
+    public void setStockLevel(ToIntFunction<Product> stockLevel) {
+        this.stockLevel = stockLevel;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Returns the product shown in a row of the table.
+     *
+     * @param row The row in the table model.
+     * @return The product in that row.
+     */
+    public Product getProductAt(int row) {
+        return products.get(row);
+    }
+
+    /**
+     * Checks whether the product in a row has fewer than {@link #LOW_STOCK_THRESHOLD} items available.
+     *
+     * @param row The row in the table model.
+     * @return True if the product is low on stock.
+     */
+    public boolean isLowStock(int row) {
+        if (!evaluatedRows.get(row)) {
+            lowStockRows.set(row, stockLevel.applyAsInt(products.get(row)) < LOW_STOCK_THRESHOLD);
+            evaluatedRows.set(row);
+        }
+        return lowStockRows.get(row);
+    }
+
+    /**
+     * Refreshes a row after the stock of its product has changed.
+     *
+     * @param row The row in the table model.
+     */
+    public void stockChanged(int row) {
+        fireTableRowsUpdated(row, row);
+    }
+
+    /**
+     * Refreshes every row after stock may have changed anywhere, e.g. in other shoppers' carts.
+     * The rows keep their selection, and only the rows that are painted again are checked.
+     */
+    public void stockLevelsChanged() {
+        if (!products.isEmpty()) {
+            fireTableRowsUpdated(0, products.size() - 1);
+        }
+    }
+
+    /**
+     * Forgets the low-stock flags of the rows an event covers before telling the listeners, so every
+     * change to the table, whoever fires it, shows current stock levels.
+     */
+    @Override
+    public void fireTableChanged(TableModelEvent e) {
+        if (e.getFirstRow() == TableModelEvent.HEADER_ROW || e.getLastRow() == Integer.MAX_VALUE) {
+            evaluatedRows.clear();
+            lowStockRows.clear();
+        } else {
+            evaluatedRows.clear(e.getFirstRow(), e.getLastRow() + 1);
+        }
+        super.fireTableChanged(e);
+    }
+
+    @Override
+    public int getRowCount() {
+        return products.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Product product = products.get(row);
+        switch (column) {
+            case 0:
+                return product.getProductId();
+            case 1:
+                return product.getProductName();
+            case 2:
+                return product.getType();
+            case 3:
+                return Money.format(product.getPrice());
+            case 4:
+                return getInfo(product);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Builds the text of the "Info" column for a product.
+     */
+    private static String getInfo(Product product) {
+        if (product instanceof Electronics electronics) {
+            return electronics.getBrand() + ", " + electronics.getWarrantyPeriod() + " years warranty";
+        } else if (product instanceof Clothing clothing) {
+            return clothing.getSize() + ", " + clothing.getColor();
+        }
+        return "";
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Reads and writes products in the "Key: value" text format used by productList.txt.
+ * Each product starts with an "Electronics:" or "Clothing:" line followed by one line per attribute.
+ */
+final class ProductTextFormat {
+    static final String ELECTRONICS_HEADER = "Electronics:";
+    static final String CLOTHING_HEADER = "Clothing:";
+
+    private ProductTextFormat() {
+    }
+
+    /**
+     * Writes one product, starting with its header line.
+     *
+     * @param writer  The writer to write to.
+     * @param product The product to write.
+     */
+    static void writeProduct(Writer writer, Product product) throws IOException {
+        if (product instanceof Electronics) {
+            writer.write(ELECTRONICS_HEADER);
+        } else if (product instanceof Clothing) {
+            writer.write(CLOTHING_HEADER);
+        }
+        writer.write("\nProduct ID: " + product.getProductId());
+        writer.write("\nProduct Name: " + product.getProductName());
+        writer.write("\nAvailable Items: " + product.getAvailableItems());
+        writer.write("\nPrice: " + Money.format(product.getPrice()));
+        if (product instanceof Electronics electronics) {
+            writer.write("\nBrand: " + electronics.getBrand());
+            writer.write("\nWarranty Period: " + electronics.getWarrantyPeriod() + "\n");
+        } else if (product instanceof Clothing clothing) {
+            writer.write("\nSize: " + clothing.getSize());
+            writer.write("\nColor: " + clothing.getColor() + "\n");
+        }
+    }
+
+    /**
+     * Reads the product that follows a header line.
+     *
+     * @param header The header line that was just read.
+     * @param reader The reader positioned after the header line.
+     * @return The product, or null if the line is not a product header.
+     */
+    static Product readProduct(String header, BufferedReader reader) throws IOException {
+        if (header.equals(ELECTRONICS_HEADER)) {
+            return readElectronics(reader);
+        } else if (header.equals(CLOTHING_HEADER)) {
+            return readClothing(reader);
+        }
+        return null;
+    }
+
+    static Electronics readElectronics(BufferedReader reader) throws IOException {
+        // Read values for Electronics attributes
+        String productId = readValue(reader, "Product ID:");
+        String productName = readValue(reader, "Product Name:");
+        int availableItems = Integer.parseInt(readValue(reader, "Available Items:"));
+        long price = Money.parse(readValue(reader, "Price:"));
+        String brand = readValue(reader, "Brand:");
+        int warrantyPeriod = Integer.parseInt(readValue(reader, "Warranty Period:"));
+
+        // Create and return an Electronics object
+        return new Electronics(productId, productName, availableItems, price, brand, warrantyPeriod);
+    }
+
+    static Clothing readClothing(BufferedReader reader) throws IOException {
+        // Read values for Clothing attributes
+        String productId = readValue(reader, "Product ID:");
+        String productName = readValue(reader, "Product Name:");
+        int availableItems = Integer.parseInt(readValue(reader, "Available Items:"));
+        long price = Money.parse(readValue(reader, "Price:"));
+        String size = readValue(reader, "Size:");
+        String color = readValue(reader, "Color:");
+
+        // Create and return a Clothing object
+        return new Clothing(productId, productName, availableItems, price, size, color);
+    }
+
+    private static String readValue(BufferedReader reader, String attribute) throws IOException {
+        // Read a line from the file
+        String line = reader.readLine();
+
+        // Check if the line starts with the expected attribute
+        if (line != null && line.startsWith(attribute)) {
+            // Remove the attribute and trim the value
+            return line.substring(attribute.length()).trim();
+        } else {
+            throw new IOException("Invalid file format. Expected attribute: " + attribute);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The rules a product's fields must follow, shared by the menu and {@link ProductImporter} so a product
+ * refused by one is refused by the other. Each check throws {@link IllegalArgumentException} with a
+ * message that can be shown to the user.
+ */
+final class ProductValidator {
+    /**
+     * The clothing sizes a product may have.
+     */
+    static final List<String> CLOTHING_SIZES = List.of("S", "M", "L", "XL", "XXL");
+
+    private ProductValidator() {
+    }
+
+    static void checkProductId(String productId) {
+        if (productId == null || productId.isBlank()) {
+            throw new IllegalArgumentException("productId is missing");
+        }
+    }
+
+    static void checkAvailableItems(int availableItems) {
+        if (availableItems <= 0) {
+            throw new IllegalArgumentException("availableItems must be at least 1: " + availableItems);
+        }
+    }
+
+    /**
+     * @param price The price in minor units, see {@link Money}.
+     */
+    static void checkPrice(long price) {
+        if (price < 0) {
+            throw new IllegalArgumentException("price must not be negative: " + Money.format(price));
+        }
+    }
+
+    static void checkWarrantyPeriod(int warrantyPeriod) {
+        if (warrantyPeriod < 0) {
+            throw new IllegalArgumentException("warrantyPeriod must not be negative: " + warrantyPeriod);
+        }
+    }
+
+    /**
+     * Checks a clothing size, ignoring case.
+     *
+     * @param size The size.
+     * @return The size in upper case, as it is stored.
+     */
+    static String checkSize(String size) {
+        String normalized = size == null ? "" : size.trim().toUpperCase(Locale.ROOT);
+        if (!CLOTHING_SIZES.contains(normalized)) {
+            throw new IllegalArgumentException("size must be one of " + String.join(", ", CLOTHING_SIZES) + ": " + size);
+        }
+        return normalized;
+    }
+
+    /**
+     * Checks every field of a product.
+     *
+     * @param product The product.
+     */
+    static void check(Product product) {
+        checkProductId(product.getProductId());
+        checkAvailableItems(product.getAvailableItems());
+        checkPrice(product.getPrice());
+        if (product instanceof Electronics electronics) {
+            checkWarrantyPeriod(electronics.getWarrantyPeriod());
+        } else if (product instanceof Clothing clothing) {
+            checkSize(clothing.getSize());
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Works out the promotion discount of a shopping cart.
+ * <p>
+ * Rules are compiled once into lookup tables keyed by category, brand and product ID. Pricing a
+ * cart only looks up the categories, brands and products actually in it, so the cost depends on
+ * the rules that can apply to the cart, not on how many promotions are active.
+ * <p>
+ * Rules are read from promotions.txt, one per line, with comma-separated fields:
+ * <pre>
+ * CATEGORY_THRESHOLD, &lt;category or *&gt;, &lt;minimum items&gt;, &lt;percent&gt;
+ * FIRST_PURCHASE, &lt;percent&gt;
+ * BOGO, &lt;product ID&gt;
+ * BRAND_BUNDLE, &lt;brand&gt;, &lt;minimum items&gt;, &lt;percent&gt;
+ * </pre>
+ * Blank lines and lines starting with # are ignored. Without the file, the shop's standard
+ * rule applies: 20% off a category when the cart has three or more items in it.
+ */
+public class PromotionEngine {
+    private static final String FILE_PATH = "promotions.txt";
+
+    private static final LatencyHistogram EVALUATE_TIME = MetricsRegistry.getDefault().histogram("promotions.evaluate");
+
+    private static PromotionEngine defaultEngine;
+
+    private final Map<String, List<PromotionRule>> rulesByCategory = new HashMap<>();
+    private final Map<String, List<PromotionRule>> rulesByBrand = new HashMap<>();
+    private final Map<String, List<PromotionRule>> rulesByProductId = new HashMap<>();
+    private final List<PromotionRule> anyCategoryRules = new ArrayList<>();
+    private final List<PromotionRule> cartRules = new ArrayList<>();
+    private final int ruleCount;
+
+    /**
+     * Compiles a list of rules into an evaluation plan.
+     *
+     * @param rules The active promotion rules.
+     */
+    public PromotionEngine(List<PromotionRule> rules) {
+        for (PromotionRule rule : rules) {
+            switch (rule.getTrigger()) {
+                case CATEGORY:
+                    if (PromotionRule.ANY_CATEGORY.equals(rule.getKey())) {
+                        anyCategoryRules.add(rule);
+                    } else {
+                        rulesByCategory.computeIfAbsent(normalize(rule.getKey()), k -> new ArrayList<>()).add(rule);
+                    }
+                    break;
+                case BRAND:
+                    rulesByBrand.computeIfAbsent(normalize(rule.getKey()), k -> new ArrayList<>()).add(rule);
+                    break;
+                case PRODUCT:
+                    rulesByProductId.computeIfAbsent(rule.getKey(), k -> new ArrayList<>()).add(rule);
+                    break;
+                case CART:
+                    cartRules.add(rule);
+                    break;
+            }
+        }
+        ruleCount = rules.size();
+    }
+
+    /**
+     * Returns the engine for the rules in promotions.txt, loading the file the first time.
+     */
+    public static synchronized PromotionEngine getDefault() {
+        if (defaultEngine == null) {
+            defaultEngine = load(Paths.get(FILE_PATH));
+        }
+        return defaultEngine;
+    }
+
+    /**
+     * Reads and compiles the rules in a promotions file. Invalid lines are reported and skipped.
+     *
+     * @param path The promotions file.
+     * @return The compiled engine, or the standard rules if the file does not exist.
+     */
+    public static PromotionEngine load(Path path) {
+        List<PromotionRule> rules = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                // Skip empty lines and comments
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    rules.add(parseRule(line.split("\\s*,\\s*")));
+                } catch (RuntimeException e) {
+                    System.err.println("Invalid line format in " + path + ": " + line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            rules.add(new CategoryThresholdRule(PromotionRule.ANY_CATEGORY, 3, 20));
+        } catch (IOException e) {
+            System.err.println("An error occurred trying to load promotions: " + e.getMessage());
+        }
+        return new PromotionEngine(rules);
+    }
+
+    private static PromotionRule parseRule(String[] fields) {
+        switch (fields[0].toUpperCase(Locale.ROOT)) {
+            case "CATEGORY_THRESHOLD":
+                return new CategoryThresholdRule(fields[1], Integer.parseInt(fields[2]), Double.parseDouble(fields[3]));
+            case "FIRST_PURCHASE":
+                return new FirstPurchaseRule(Double.parseDouble(fields[1]));
+            case "BOGO":
+                return new BuyOneGetOneRule(fields[1]);
+            case "BRAND_BUNDLE":
+                return new BrandBundleRule(fields[1], Integer.parseInt(fields[2]), Double.parseDouble(fields[3]));
+            default:
+                throw new IllegalArgumentException("Unknown rule type: " + fields[0]);
+        }
+    }
+
+    /**
+     * Works out the total promotion discount of a cart. The discount never exceeds the cart total.
+     *
+     * @param cart The cart to price.
+     * @return The discount amount in minor units.
+     */
+    public long evaluate(ShoppingCart cart) {
+        long start = System.nanoTime();
+        CartPricing pricing = cart.getPricing();
+        long discount = 0;
+
+        for (String category : pricing.getCategories()) {
+            discount += apply(rulesByCategory.get(normalize(category)), cart, category);
+            discount += apply(anyCategoryRules, cart, category);
+        }
+        for (String brand : pricing.getBrands()) {
+            discount += apply(rulesByBrand.get(normalize(brand)), cart, brand);
+        }
+
+        // Walk whichever is smaller: the products in the cart or the products on offer
+        if (cart.size() <= rulesByProductId.size()) {
+            for (CartItem item : cart.getItems()) {
+                String productId = item.getProduct().getProductId();
+                discount += apply(rulesByProductId.get(productId), cart, productId);
+            }
+        } else {
+            for (Map.Entry<String, List<PromotionRule>> entry : rulesByProductId.entrySet()) {
+                if (cart.getItem(entry.getKey()) != null) {
+                    discount += apply(entry.getValue(), cart, entry.getKey());
+                }
+            }
+        }
+
+        discount += apply(cartRules, cart, null);
+        EVALUATE_TIME.recordSince(start);
+        return Math.min(discount, pricing.getTotal());
+    }
+
+    /**
+     * Returns the number of rules in the plan.
+     */
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    private static long apply(List<PromotionRule> rules, ShoppingCart cart, String matchedKey) {
+        if (rules == null) {
+            return 0;
+        }
+        long discount = 0;
+        for (PromotionRule rule : rules) {
+            discount += rule.discount(cart, matchedKey);
+        }
+        return discount;
+    }
+
+    private static String normalize(String key) {
+        return key.trim().toLowerCase(Locale.ROOT);
+    }
+}
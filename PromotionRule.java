@@ -0,0 +1,47 @@
+/**
+ * A discount rule applied when pricing a shopping cart.
+ * Each rule is triggered by one kind of key, so the {@link PromotionEngine} only evaluates it
+ * when the cart contains something that can match it.
+ */
+public abstract class PromotionRule {
+    /**
+     * What a rule is looked up by when a cart is priced.
+     */
+    public enum Trigger {
+        // Evaluated for each category in the cart; the key is a category name or "*" for every category
+        CATEGORY,
+        // Evaluated for each brand in the cart
+        BRAND,
+        // Evaluated when a product is in the cart
+        PRODUCT,
+        // Evaluated once for every cart
+        CART
+    }
+
+    public static final String ANY_CATEGORY = "*";
+
+    private final Trigger trigger;
+    private final String key;
+
+    protected PromotionRule(Trigger trigger, String key) {
+        this.trigger = trigger;
+        this.key = key;
+    }
+
+    public Trigger getTrigger() {
+        return trigger;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Works out the discount this rule gives a cart.
+     *
+     * @param cart       The cart being priced.
+     * @param matchedKey The category, brand or product ID that triggered the rule, or null for cart rules.
+     * @return The discount amount in minor units, or 0 if the rule does not apply.
+     */
+    public abstract long discount(ShoppingCart cart, String matchedKey);
+}
@@ -0,0 +1,143 @@
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks {@link InventoryService}: many carts reserving the same product never get more than its stock,
+ * committing and releasing at the same time leaves the stock and the reservable count in step, a commit
+ * that fails, because the stock was lowered or the sale could not be logged, takes nothing and leaves
+ * the cart's reservations in place, and a product removed from the catalog leaves the carts holding it.
+ * Run with {@code java ReservationCheck}.
+ */
+public class ReservationCheck {
+    private static final int STOCK = 100;
+    private static final int CARTS = 32;
+    // Items each cart tries to reserve, one at a time; together far more than the stock
+    private static final int ATTEMPTS_PER_CART = 10;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("reservation-check");
+        try {
+            Path productFile = directory.resolve("productList.txt");
+            Files.createFile(productFile);
+            try (WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile)) {
+                checkContention(manager);
+                checkStockLowered(manager);
+                checkProductRemoved(manager);
+            }
+            checkLogFailure(productFile);
+        } finally {
+            Checks.deleteDirectory(directory);
+        }
+        Checks.finish("ReservationCheck");
+    }
+
+    private static void checkContention(WestminsterShoppingManager manager) throws Exception {
+        manager.addProduct(new Electronics("E1", "Phone", STOCK, 49_999, "Acme", 12));
+        InventoryService inventory = manager.getInventory();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            AtomicInteger reserved = new AtomicInteger();
+            int[] reservedByCart = new int[CARTS];
+            List<Future<?>> reservations = new ArrayList<>();
+            for (int cart = 0; cart < CARTS; cart++) {
+                int index = cart;
+                reservations.add(executor.submit(() -> {
+                    for (int i = 0; i < ATTEMPTS_PER_CART; i++) {
+                        if (inventory.reserve("cart-" + index, "E1", 1)) {
+                            reservedByCart[index]++;
+                            reserved.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : reservations) {
+                future.get();
+            }
+            Checks.check(reserved.get() == STOCK, "contending carts reserve exactly the stock");
+            Checks.check(inventory.getAvailable("E1") == 0, "nothing is left to reserve");
+
+            // Even carts buy what they reserved while odd carts give it back
+            AtomicInteger sold = new AtomicInteger();
+            List<Future<?>> outcomes = new ArrayList<>();
+            for (int cart = 0; cart < CARTS; cart++) {
+                int index = cart;
+                outcomes.add(executor.submit(() -> {
+                    if (index % 2 == 1) {
+                        inventory.releaseAll("cart-" + index);
+                    } else if (reservedByCart[index] > 0
+                            && inventory.commit("cart-" + index, Map.of("E1", reservedByCart[index]))) {
+                        sold.addAndGet(reservedByCart[index]);
+                    }
+                }));
+            }
+            for (Future<?> future : outcomes) {
+                future.get();
+            }
+            int stock = manager.findProductById("E1").getAvailableItems();
+            Checks.check(stock == STOCK - sold.get(), "commits take exactly the items sold off the stock");
+            Checks.check(inventory.getAvailable("E1") == stock, "released items can be reserved again");
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static void checkStockLowered(WestminsterShoppingManager manager) {
+        manager.addProduct(new Electronics("E2", "Radio", 5, 2_500, "Acme", 6));
+        manager.addProduct(new Clothing("C1", "Shirt", 5, 1_999, "M", "Blue"));
+        InventoryService inventory = manager.getInventory();
+        inventory.reserve("lowered", "E2", 2);
+        inventory.reserve("lowered", "C1", 2);
+        // The manager lowers the stock below what the cart holds
+        manager.updateStock("C1", 1);
+
+        Checks.check(!inventory.commit("lowered", Map.of("E2", 2, "C1", 2)), "a commit fails when the stock was lowered below it");
+        Checks.check(manager.findProductById("E2").getAvailableItems() == 5, "a failed commit takes nothing of the other products");
+        Checks.check(inventory.getAvailable("E2") == 3, "a failed commit keeps the cart's reservations");
+        inventory.releaseAll("lowered");
+        Checks.check(inventory.getAvailable("E2") == 5, "released reservations return to the stock");
+    }
+
+    private static void checkProductRemoved(WestminsterShoppingManager manager) {
+        manager.addProduct(new Electronics("E3", "Lamp", 4, 999, "Acme", 6));
+        manager.addProduct(new Clothing("C2", "Scarf", 4, 1_499, "S", "Red"));
+        ShoppingSession session = manager.getShoppingService().openSession(new User("removed", null));
+        session.addToCart("E3", 1);
+        session.addToCart("C2", 1);
+        manager.removeProduct("E3");
+
+        Checks.check(session.getCartItems().size() == 1 && session.getCartItems().get(0).getProduct().getProductId().equals("C2"),
+                "a product removed from the catalog leaves the carts holding it");
+        Checks.check(session.checkout(), "a cart that held a removed product can still check out");
+        Checks.check(manager.findProductById("C2").getAvailableItems() == 3, "the rest of the cart is bought");
+    }
+
+    private static void checkLogFailure(Path productFile) throws Exception {
+        WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile);
+        InventoryService inventory = manager.getInventory();
+        int stock = manager.findProductById("E2").getAvailableItems();
+        inventory.reserve("unlogged", "E2", 2);
+        // A closed log fails every append, as a full disk would
+        manager.close();
+
+        boolean failed;
+        try {
+            inventory.commit("unlogged", Map.of("E2", 2));
+            failed = false;
+        } catch (UncheckedIOException e) {
+            failed = true;
+        }
+        Checks.check(failed, "a commit that cannot be logged fails");
+        Checks.check(manager.findProductById("E2").getAvailableItems() == stock, "a commit that cannot be logged takes nothing");
+        Checks.check(inventory.getAvailable("E2") == stock - 2, "a commit that cannot be logged keeps the cart's reservations");
+    }
+}
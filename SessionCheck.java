@@ -0,0 +1,92 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks session expiry in {@link ShoppingService}: an idle session is closed and its reservations
+ * released, a closed session refuses further use and is replaced by a new one, a session used since the
+ * idle cut-off or kept open by a window is left alone, and an operation whose session is closed under
+ * it runs again on a new session. Run with {@code java SessionCheck}.
+ */
+public class SessionCheck {
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("session-check");
+        try {
+            Path productFile = directory.resolve("productList.txt");
+            Files.createFile(productFile);
+            try (WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile)) {
+                manager.addProduct(new Electronics("E1", "Phone", 10, 49_999, "Acme", 12));
+                ShoppingService service = manager.getShoppingService();
+                checkExpiry(manager, service);
+                checkInUse(service);
+                checkKeepOpen(service);
+                checkRetry(manager, service);
+            }
+        } finally {
+            Checks.deleteDirectory(directory);
+        }
+        Checks.finish("SessionCheck");
+    }
+
+    private static void checkExpiry(WestminsterShoppingManager manager, ShoppingService service) {
+        User user = new User("idle", null);
+        ShoppingSession session = service.openSession(user);
+        session.addToCart("E1", 3);
+        Checks.check(manager.getInventory().getAvailable("E1") == 7, "items added to a cart are reserved");
+
+        // Every session counts as idle against a cut-off in the future
+        service.closeIdleSessions(System.currentTimeMillis() + 1000);
+        Checks.check(session.isClosed() && service.getSession("idle") == null, "an idle session is closed and forgotten");
+        Checks.check(manager.getInventory().getAvailable("E1") == 10, "an expired session's reservations are released");
+
+        boolean refused;
+        try {
+            session.addToCart("E1", 1);
+            refused = false;
+        } catch (IllegalStateException e) {
+            refused = true;
+        }
+        Checks.check(refused, "a closed session refuses further use");
+        ShoppingSession reopened = service.openSession(user);
+        Checks.check(reopened != session && reopened.isCartEmpty(), "the next use starts a new, empty session");
+        service.closeSession("idle");
+    }
+
+    private static void checkInUse(ShoppingService service) {
+        ShoppingSession session = service.openSession(new User("busy", null));
+        long idleSince = System.currentTimeMillis();
+        // Used at or after the cut-off, as by a request that started while the reaper was running
+        while (System.currentTimeMillis() == idleSince) {
+            Thread.onSpinWait();
+        }
+        session.getTotal();
+        service.closeIdleSessions(idleSince);
+        Checks.check(!session.isClosed(), "a session used since the cut-off stays open");
+        service.closeSession("busy");
+    }
+
+    private static void checkKeepOpen(ShoppingService service) {
+        ShoppingSession session = service.openSession(new User("window", null), true);
+        service.closeIdleSessions(System.currentTimeMillis() + 1000);
+        Checks.check(!session.isClosed(), "a session kept open by a window is not closed as idle");
+        session.setKeepOpen(false);
+        service.closeIdleSessions(System.currentTimeMillis() + 1000);
+        Checks.check(session.isClosed(), "the session expires once the window lets it go");
+    }
+
+    private static void checkRetry(WestminsterShoppingManager manager, ShoppingService service) {
+        User user = new User("retry", null);
+        AtomicInteger attempts = new AtomicInteger();
+        CartItem item = service.withSession(user, session -> {
+            if (attempts.incrementAndGet() == 1) {
+                // The session is closed after the operation got hold of it
+                service.closeSession(user.getUsername());
+            }
+            return session.addToCart("E1", 2);
+        });
+        Checks.check(attempts.get() == 2 && item != null, "an operation on a session closed under it runs again");
+        Checks.check(service.openSession(user).getCartItems().size() == 1, "the operation's change lands in the new session");
+        service.closeSession("retry");
+        Checks.check(manager.getInventory().getAvailable("E1") == 10, "closing the new session releases its reservations");
+    }
+}
@@ -1,26 +1,157 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Holds the items in a shopping cart, keyed by product ID.
+ * Adding, updating or removing an item is a single map operation, whatever the size of the cart,
+ * and the totals are kept up to date by {@link CartPricing} as the items change.
+ */
 class ShoppingCart {
-    private List<Product> products;
+    // Cart operations across all carts, see MetricsRegistry
+    private static final LongAdder ADDS = MetricsRegistry.getDefault().counter("cart.add");
+    private static final LongAdder REMOVES = MetricsRegistry.getDefault().counter("cart.remove");
+    private static final LongAdder UPDATES = MetricsRegistry.getDefault().counter("cart.update");
+
+    private final String id = UUID.randomUUID().toString();
+    private final Map<String, CartItem> items;
+    private final CartPricing pricing;
+    private boolean firstPurchase;
 
     public ShoppingCart() {
-        this.products = new ArrayList<>();
+        this(PromotionEngine.getDefault());
+    }
+
+    /**
+     * Constructor for a cart priced with a specific set of promotions.
+     *
+     * @param promotions The promotions applied to the cart.
+     */
+    public ShoppingCart(PromotionEngine promotions) {
+        this.items = new LinkedHashMap<>();
+        this.pricing = new CartPricing(this, promotions);
     }
 
     public void addProduct(Product product) {
-        products.add(product);
+        addProduct(product, 1);
+    }
+
+    /**
+     * Adds a quantity of a product, increasing the quantity if the product is already in the cart.
+     *
+     * @param product  The product to add.
+     * @param quantity The number of items to add.
+     * @return The cart item for the product.
+     */
+    public CartItem addProduct(Product product, int quantity) {
+        CartItem item = items.get(product.getProductId());
+        if (item == null) {
+            item = new CartItem(product, quantity);
+            items.put(product.getProductId(), item);
+        } else {
+            item.setQuantity(item.getQuantity() + quantity);
+        }
+        pricing.quantityChanged(product, item.getUnitPrice(), quantity);
+        ADDS.increment();
+        return item;
     }
 
     public void removeProduct(Product product) {
-        products.remove(product);
+        removeProduct(product.getProductId());
+    }
+
+    /**
+     * Removes a product from the cart, whatever its quantity.
+     *
+     * @param productId The ID of the product to remove.
+     * @return The removed cart item, or null if the product was not in the cart.
+     */
+    public CartItem removeProduct(String productId) {
+        CartItem item = items.remove(productId);
+        if (item != null) {
+            pricing.quantityChanged(item.getProduct(), item.getUnitPrice(), -item.getQuantity());
+            REMOVES.increment();
+        }
+        return item;
+    }
+
+    /**
+     * Sets the quantity of a product already in the cart. A quantity of zero or less removes it.
+     *
+     * @param productId The ID of the product.
+     * @param quantity  The new quantity.
+     * @return The cart item, or null if the product is not (or no longer) in the cart.
+     */
+    public CartItem setQuantity(String productId, int quantity) {
+        if (quantity <= 0) {
+            removeProduct(productId);
+            return null;
+        }
+        CartItem item = items.get(productId);
+        if (item != null) {
+            pricing.quantityChanged(item.getProduct(), item.getUnitPrice(), quantity - item.getQuantity());
+            item.setQuantity(quantity);
+            UPDATES.increment();
+        }
+        return item;
     }
 
-    public double calculateTotalCost() {
-        double totalCost = 0;
-        for (Product product : products) {
-            totalCost += product.getPrice();
+    /**
+     * Empties the cart, for example after checkout.
+     */
+    public void clear() {
+        for (CartItem item : items.values()) {
+            pricing.quantityChanged(item.getProduct(), item.getUnitPrice(), -item.getQuantity());
         }
-        return totalCost;
+        items.clear();
+    }
+
+    /**
+     * Returns the ID the cart's stock reservations are held under.
+     */
+    public String getId() {
+        return id;
+    }
+
+    public CartItem getItem(String productId) {
+        return items.get(productId);
+    }
+
+    /**
+     * Returns a read-only view of the items, in the order they were first added.
+     */
+    public Collection<CartItem> getItems() {
+        return Collections.unmodifiableCollection(items.values());
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * Returns the number of different products in the cart.
+     */
+    public int size() {
+        return items.size();
+    }
+
+    public boolean isFirstPurchase() {
+        return firstPurchase;
+    }
+
+    public void setFirstPurchase(boolean firstPurchase) {
+        this.firstPurchase = firstPurchase;
+        pricing.cartChanged();
+    }
+
+    public CartPricing getPricing() {
+        return pricing;
+    }
+
+    public long calculateTotalCost() {
+        return pricing.getTotal();
     }
 }
@@ -2,31 +2,39 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Represents the GUI for the shopping cart, allowing users to view and manage items in their cart.
+ * The cart itself is kept by the user's {@link ShoppingSession}; the table is rebuilt from it whenever
+ * the cart changes here or the window is brought to the front, so products removed from the catalog
+ * meanwhile disappear from it.
  */
 public class ShoppingCartGUI extends JFrame {
     // DefaultTableModel for the shopping cart table
     private final DefaultTableModel cartTableModel;
 
-    // Lists to keep track of items in the shopping cart
-    private final List<String> productIds;
-    private final List<Integer> quantities;
-    private final List<Double> totalPrices;
+    // The session whose cart is shown by this frame
+    private final ShoppingSession session;
 
-    // Map to store the count of items in each category for discount calculation
-    private final Map<String, Integer> categoryCounts;
+    // ID of the product on each table row
+    private final List<String> productIds = new ArrayList<>();
+
+    private final JTable cartTable;
 
     /**
      * Constructor for ShoppingCartGUI.
      * Sets up the frame layout, initializes the shopping cart table, and sets up the bottom panel.
+     *
+     * @param session The shopping session whose cart is shown.
      */
-    public ShoppingCartGUI() {
+    public ShoppingCartGUI(ShoppingSession session) {
+        this.session = session;
+
         setTitle("Shopping Cart");
         setLayout(new BorderLayout());
 
@@ -40,7 +48,7 @@ public class ShoppingCartGUI extends JFrame {
         // Table for the shopping cart
         String[] cartColumnNames = {"Product", "Quantity", "Price"};
         cartTableModel = new DefaultTableModel(null, cartColumnNames);
-        JTable cartTable = new JTable(cartTableModel);
+        cartTable = new JTable(cartTableModel);
 
         // Add spacing around the table
         JScrollPane cartTableScrollPane = new JScrollPane(cartTable);
@@ -48,12 +56,6 @@ public class ShoppingCartGUI extends JFrame {
 
         add(cartTableScrollPane, BorderLayout.CENTER);
 
-        // Initialize additional fields
-        productIds = new ArrayList<>();
-        quantities = new ArrayList<>();
-        totalPrices = new ArrayList<>();
-        categoryCounts = new HashMap<>();
-
         // Bottom panel for displaying total and discounts
         JPanel bottomPanel = new JPanel(new GridLayout(3, 1));
 
@@ -64,6 +66,24 @@ public class ShoppingCartGUI extends JFrame {
         bottomPanel.setBorder(bottomPanelEmptyBorder);
         add(bottomPanel, BorderLayout.SOUTH);
 
+        // Remove and Checkout buttons above the table
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton removeButton = new JButton("Remove");
+        removeButton.addActionListener(e -> removeSelected());
+        topPanel.add(removeButton);
+        JButton checkoutButton = new JButton("Checkout");
+        checkoutButton.addActionListener(e -> checkout());
+        topPanel.add(checkoutButton);
+        add(topPanel, BorderLayout.NORTH);
+
+        // The cart may have changed while the window was in the background
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowActivated(WindowEvent e) {
+                refreshCart();
+            }
+        });
+
         setSize(500, 400);
         setLocationRelativeTo(null);
     }
@@ -77,80 +97,121 @@ public class ShoppingCartGUI extends JFrame {
         return cartTableModel;
     }
 
+    /**
+     * Getter method for the shopping session shown by this frame.
+     *
+     * @return The shopping session.
+     */
+    public ShoppingSession getSession() {
+        return session;
+    }
+
     /**
      * Adds or updates an item in the shopping cart.
      *
-     * @param product    The product details.
-     * @param quantity   The quantity of the product.
-     * @param totalPrice The total price of the product.
+     * @param product  The product to add.
+     * @param quantity The quantity of the product.
+     * @return False if the product is out of stock.
      */
-    public void addToCartTable(String product, int quantity, double totalPrice) {
-        // Check if the product is already in the cart
-        int index = findProductIndex(getProductIdFromProductString(product));
-        if (index != -1) {
-            // Product already exists, update the quantity and total price
-            int newQuantity = quantities.get(index) + quantity;
-            double newTotalPrice = totalPrices.get(index) + totalPrice;
-
-            // Update the item in the cart
-            updateCartItem(index, product, newQuantity, newTotalPrice);
-        } else {
-            // Product doesn't exist, add it to the cart
-            cartTableModel.addRow(new Object[]{product, quantity, totalPrice});
+    public boolean addToCart(Product product, int quantity) {
+        CartItem item = session.addToCart(product.getProductId(), quantity);
+        if (item == null) {
+            return false;
+        }
+        refreshCart();
+        return true;
+    }
+
+    /**
+     * Removes the selected product from the cart and releases its reserved items.
+     */
+    private void removeSelected() {
+        int row = cartTable.getSelectedRow();
+        if (row < 0) {
+            JOptionPane.showMessageDialog(this, "Select a product to remove.", "Remove", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        session.removeFromCart(productIds.get(row));
+        refreshCart();
+    }
+
+    /**
+     * Rebuilds the table and the totals from the items in the session's cart.
+     */
+    private void refreshCart() {
+        cartTableModel.setRowCount(0);
+        productIds.clear();
+        for (CartItem item : session.getCartItems()) {
+            cartTableModel.addRow(new Object[]{formatProduct(item.getProduct()), item.getQuantity(), Money.format(item.getLineTotal())});
+            productIds.add(item.getProduct().getProductId());
+        }
 
-            // Keep track of the item details
-            productIds.add(getProductIdFromProductString(product));
-            quantities.add(quantity);
-            totalPrices.add(totalPrice);
+        // Update the bottom panel
+        updateBottomPanel();
+    }
 
-            // Update category counts for discount calculation
-            updateCategoryCounts(product);
+    /**
+     * Buys the items in the cart: their reserved stock is taken off the catalog for good and the cart is emptied.
+     * Displays a warning instead if some items are no longer in stock.
+     */
+    private void checkout() {
+        if (session.isCartEmpty()) {
+            // Products removed from the catalog may have emptied it
+            refreshCart();
+            JOptionPane.showMessageDialog(this, "No products in the cart.", "Empty Cart", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
 
-            // Update the bottom panel
-            updateBottomPanel();
+        boolean ordered;
+        try {
+            ordered = session.checkout();
+        } catch (UncheckedIOException e) {
+            JOptionPane.showMessageDialog(this, "The order could not be saved. Please try again.", "Checkout Failed", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        refreshCart();
+        if (ordered) {
+            JOptionPane.showMessageDialog(this, "Order placed successfully!", "Checkout", JOptionPane.INFORMATION_MESSAGE);
+        } else {
+            JOptionPane.showMessageDialog(this, "Some products in the cart are no longer in stock.", "Out of Stock", JOptionPane.WARNING_MESSAGE);
         }
     }
 
     /**
-     * Updates category counts for discount calculation.
+     * Builds the text shown in the "Product" column for a product.
      *
-     * @param product The product details.
+     * @param product The product.
+     * @return The product ID, name, category and details.
      */
-    private void updateCategoryCounts(String product) {
-        String[] parts = product.split(", ");
-        String category = parts[2];
-        categoryCounts.put(category, categoryCounts.getOrDefault(category, 0) + 1);
-
-        // Print statement for verification
-        System.out.println("Category counts updated: " + categoryCounts);
+    private String formatProduct(Product product) {
+        String productInfo;
+        if (product instanceof Electronics electronics) {
+            productInfo = "Brand: " + electronics.getBrand() + ", Warranty: " + electronics.getWarrantyPeriod() + " years warranty";
+        } else if (product instanceof Clothing clothing) {
+            productInfo = "Size: " + clothing.getSize() + ", Color: " + clothing.getColor();
+        } else {
+            // Default case if the category is not recognized
+            productInfo = "Info not available";
+        }
+        return product.getProductId() + ", " + product.getProductName() + ", " + product.getType() + ", " + productInfo;
     }
 
     /**
      * Updates the bottom panel with total and discounts.
      */
     private void updateBottomPanel() {
-        // Calculate total
-        double total = totalPrices.stream().mapToDouble(Double::doubleValue).sum();
-
-        // Calculate category discount (20% for at least three items in the same category)
-        double categoryDiscount = categoryCounts.values().stream().filter(count -> count >= 3)
-                .mapToDouble(count -> totalPrices.stream().mapToDouble(Double::doubleValue).sum() * 0.20).sum();
-
-        // Calculate final total
-        double finalTotal = total - categoryDiscount;
-
-        // Update the bottom panel labels
-        updateBottomPanelLabels(total, categoryDiscount, finalTotal);
+        // Totals are kept up to date by the cart as items change
+        updateBottomPanelLabels(session.getTotal(), session.getDiscount(), session.getFinalTotal());
     }
 
     /**
      * Updates bottom panel labels with total and discounts.
      *
-     * @param total           The total price of items in the cart.
-     * @param categoryDiscount The discount applied based on category counts.
-     * @param finalTotal       The final total after applying discounts.
+     * @param total           The total price of items in the cart, in minor units.
+     * @param discount        The discount applied by the active promotions, in minor units.
+     * @param finalTotal       The final total after applying discounts, in minor units.
      */
-    private void updateBottomPanelLabels(double total, double categoryDiscount, double finalTotal) {
+    private void updateBottomPanelLabels(long total, long discount, long finalTotal) {
         // Get the bottom panel
         JPanel bottomPanel = (JPanel) getContentPane().getComponent(1);
 
@@ -161,9 +222,9 @@ public class ShoppingCartGUI extends JFrame {
         EmptyBorder labelEmptyBorder = new EmptyBorder(0, 0, 10, 0);
 
         // Add labels to the bottom panel with the specified EmptyBorder
-        bottomPanel.add(createRightAlignedLabel("Total: " + total, labelEmptyBorder));
-        bottomPanel.add(createRightAlignedLabel("Category Discount: " + categoryDiscount, labelEmptyBorder));
-        bottomPanel.add(createRightAlignedLabel("Final Total: " + finalTotal, labelEmptyBorder));
+        bottomPanel.add(createRightAlignedLabel("Total: " + Money.format(total), labelEmptyBorder));
+        bottomPanel.add(createRightAlignedLabel("Discount: " + Money.format(discount), labelEmptyBorder));
+        bottomPanel.add(createRightAlignedLabel("Final Total: " + Money.format(finalTotal), labelEmptyBorder));
 
         // Repaint the frame to reflect changes
         revalidate();
@@ -183,60 +244,12 @@ public class ShoppingCartGUI extends JFrame {
         return label;
     }
 
-    /**
-     * Updates an item in the shopping cart.
-     *
-     * @param index      The index of the item in the shopping cart.
-     * @param product    The product details.
-     * @param quantity   The updated quantity of the product.
-     * @param totalPrice The updated total price of the product.
-     */
-    private void updateCartItem(int index, String product, int quantity, double totalPrice) {
-        // Update the item in the shopping cart
-        cartTableModel.setValueAt(product, index, 0);
-        cartTableModel.setValueAt(quantity, index, 1);
-        cartTableModel.setValueAt(totalPrice, index, 2);
-
-        // Update the item details
-        productIds.set(index, getProductIdFromProductString(product));
-        quantities.set(index, quantity);
-        totalPrices.set(index, totalPrice);
-
-        // Update category counts for discount calculation
-        updateCategoryCounts(product);
-
-        // Update the bottom panel
-        updateBottomPanel();
-    }
-
-    /**
-     * Finds the index of a product in the shopping cart.
-     *
-     * @param productId The ID of the product to find.
-     * @return The index of the product in the shopping cart, or -1 if not found.
-     */
-    private int findProductIndex(String productId) {
-        return productIds.indexOf(productId);
-    }
-
-    /**
-     * Extracts the product ID from the formatted product string.
-     *
-     * @param product The formatted product string.
-     * @return The extracted product ID.
-     */
-    private String getProductIdFromProductString(String product) {
-        // Extract the product ID from the formatted product string
-        String[] parts = product.split(", ");
-        return parts[0];
-    }
-
     /**
      * Main method to launch the ShoppingCartGUI.
      *
      * @param args Command-line arguments (not used).
      */
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new ShoppingCartGUI());
+        SwingUtilities.invokeLater(() -> new ShoppingCartGUI(new WestminsterShoppingManager().getShoppingService().openSession(new User("guest", null), true)));
     }
 }
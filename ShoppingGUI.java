@@ -1,22 +1,36 @@
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.ExecutionException;
 
 /**
  * ShoppingGUI class represents the main graphical user interface for the Westminster Shopping Centre application.
  * It allows users to browse and interact with a list of products, view details, and add products to a shopping cart.
+ * Browsing, the cart and checkout all go through the user's {@link ShoppingSession}.
  */
 public class ShoppingGUI extends JFrame {
-    private final WestminsterShoppingManager shoppingManager;
-    private final DefaultTableModel tableModel;
+    // Shopper used when the GUI is started without signing in
+    private static final User GUEST = new User("guest", null);
+    // Rows shown for a search; the best matches come first, so more would only be scrolled past
+    private static final int SEARCH_LIMIT = 200;
+    // How often the low-stock highlighting is brought up to date with other shoppers' carts and checkouts
+    private static final int STOCK_REFRESH_MILLIS = 2000;
+    // Typing pause before the table is searched, so a burst of keystrokes runs one search
+    private static final int SEARCH_DELAY_MILLIS = 150;
+
+    private final ShoppingSession session;
+    private final ProductTableModel tableModel;
     private final JTextArea selectedProductDetailsTextArea;
+    private final JTextField searchField;
     private ShoppingCartGUI shoppingCartGUI; // Declare shoppingCartGUI as an instance variable
+    // The search or listing running in the background; a newer one replaces it
+    private SwingWorker<List<Product>, Void> tableRefresh;
 
     /**
      * Constructor for the ShoppingGUI class.
@@ -25,7 +39,18 @@ public class ShoppingGUI extends JFrame {
      * @param shoppingManager The WestminsterShoppingManager instance managing the product data.
      */
     public ShoppingGUI(WestminsterShoppingManager shoppingManager) {
-        this.shoppingManager = shoppingManager;
+        this(shoppingManager, GUEST);
+    }
+
+    /**
+     * Constructor for the ShoppingGUI class for a signed-in user.
+     *
+     * @param shoppingManager The WestminsterShoppingManager instance managing the product data.
+     * @param user            The user shopping.
+     */
+    public ShoppingGUI(WestminsterShoppingManager shoppingManager, User user) {
+        // The window holds on to the session, so it must not be closed as idle while the window is open
+        this.session = shoppingManager.getShoppingService().openSession(user, true);
 
         setTitle("Westminster Shopping Centre");
         setLayout(new BorderLayout());
@@ -46,6 +71,11 @@ public class ShoppingGUI extends JFrame {
         JComboBox<String> categoryComboBox = new JComboBox<>(new String[]{"All", "Electronics", "Clothing"});
         centerPanel.add(categoryComboBox);
 
+        // Search box, searching as the user types
+        centerPanel.add(new JLabel("Search"));
+        searchField = new JTextField(20);
+        centerPanel.add(searchField);
+
         topPanel.add(centerPanel, BorderLayout.CENTER);
 
         // Shopping Cart button in the top-right corner
@@ -55,7 +85,7 @@ public class ShoppingGUI extends JFrame {
         // Add ActionListener to the Shopping Cart button
         shoppingCartButton.addActionListener(e -> {
             // Check if the shopping cart GUI is not null and if there are items in the cart
-            if (shoppingCartGUI != null && shoppingCartGUI.getCartTableModel().getRowCount() > 0) {
+            if (shoppingCartGUI != null && !session.isCartEmpty()) {
                 // Show the shopping cart GUI
                 shoppingCartGUI.setVisible(true);
             } else {
@@ -69,9 +99,10 @@ public class ShoppingGUI extends JFrame {
         // Center Panel
         JPanel centerPanelWithDetails = new JPanel(new BorderLayout());
 
-        // Table
-        String[] columnNames = {"Product ID", "Name", "Category", "Price(£)", "Info"};
-        tableModel = new DefaultTableModel(null, columnNames);
+        // Table backed directly by the product repository
+        tableModel = new ProductTableModel();
+        // Show the stock still free to reserve, so items in other carts are not offered twice
+        tableModel.setStockLevel(product -> session.getAvailable(product.getProductId()));
         JTable table = new JTable(tableModel);
 
         // Set row height to increase the size of the table cells
@@ -87,21 +118,13 @@ public class ShoppingGUI extends JFrame {
             public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
                 Component cellComponent = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
 
-                Object productId = table.getValueAt(row, 0); // Assuming the Product ID is in the first column
-
-                if (productId != null) {
-                    for (Product p : shoppingManager.loadProductsFromFile()) {
-                        if (Objects.equals(productId, p.getProductId())) {
-                            int availableItems = p.getAvaliableItems();
-                            if (availableItems < 3) {
-                                cellComponent.setBackground(Color.RED); // Set the background color to red for cells with less than 3 items available
-                                cellComponent.setForeground(Color.WHITE); // Set text color to white for better visibility
-                            } else {
-                                cellComponent.setBackground(table.getBackground()); // Set default background color
-                                cellComponent.setForeground(table.getForeground()); // Set default text color
-                            }
-                        }
-                    }
+                // Stock levels are kept per row by the table model, so painting a cell never scans the products
+                if (tableModel.isLowStock(table.convertRowIndexToModel(row))) {
+                    cellComponent.setBackground(Color.RED); // Set the background color to red for cells with less than 3 items available
+                    cellComponent.setForeground(Color.WHITE); // Set text color to white for better visibility
+                } else {
+                    cellComponent.setBackground(table.getBackground()); // Set default background color
+                    cellComponent.setForeground(table.getForeground()); // Set default text color
                 }
 
                 return cellComponent;
@@ -146,6 +169,26 @@ public class ShoppingGUI extends JFrame {
             refreshTable(selectedCategory);
         });
 
+        // Search once the user pauses typing; every change restarts the delay
+        Timer searchDelay = new Timer(SEARCH_DELAY_MILLIS, e -> refreshTable((String) categoryComboBox.getSelectedItem()));
+        searchDelay.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchDelay.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchDelay.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchDelay.restart();
+            }
+        });
+
         // ListSelectionListener for table
         ListSelectionModel selectionModel = table.getSelectionModel();
         selectionModel.addListSelectionListener(e -> {
@@ -157,6 +200,18 @@ public class ShoppingGUI extends JFrame {
             }
         });
 
+        // Stock also changes in other carts, at checkout and in the manager's menu, none of which touch this table
+        Timer stockRefresh = new Timer(STOCK_REFRESH_MILLIS, e -> tableModel.stockLevelsChanged());
+        stockRefresh.start();
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                stockRefresh.stop();
+                searchDelay.stop();
+                session.setKeepOpen(false);
+            }
+        });
+
         setSize(800, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
@@ -164,64 +219,50 @@ public class ShoppingGUI extends JFrame {
     }
 
     /**
-     * Refreshes the table based on the selected product category.
+     * Refreshes the table based on the selected product category and the text in the search box.
+     * The products are looked up in the background and shown when they are ready, unless a newer
+     * refresh has started by then.
      *
      * @param selectedCategory The selected product category.
      */
     public void refreshTable(String selectedCategory) {
-        List<Product> products;
-
-        if ("All".equalsIgnoreCase(selectedCategory)) {
-            products = shoppingManager.loadProductsFromFile();
-        } else {
-            products = shoppingManager.loadProductsFromFile();
-            products = filterProductsByCategory(products, selectedCategory);
+        String query = searchField.getText();
+        if (tableRefresh != null) {
+            tableRefresh.cancel(false);
         }
-
-        // Sort products alphabetically by ID
-        Collections.sort(products, (p1, p2) -> p1.getProductId().compareTo(p2.getProductId()));
-
-        // Remove all rows from the table
-        tableModel.setRowCount(0);
-
-        for (Product product : products) {
-            // Add product details to the table
-            Object[] rowData = new Object[5];
-            rowData[0] = product.getProductId();
-            rowData[1] = product.getProductName();
-            rowData[2] = product instanceof Clothing ? "Clothing" : "Electronics";
-            rowData[3] = product.getPrice();
-
-            if (product instanceof Electronics electronics) {
-                rowData[4] = electronics.getBrand() + ", " + electronics.getWarrantyPeriod() + " years warranty";
-            } else if (product instanceof Clothing clothing) {
-                rowData[4] = clothing.getSize() + ", " + clothing.getColour();
+        tableRefresh = new SwingWorker<>() {
+            @Override
+            protected List<Product> doInBackground() {
+                if (!query.isBlank()) {
+                    // Best matches first, from the repository's search index
+                    return session.search(query, selectedCategory, SEARCH_LIMIT);
+                } else if ("All".equalsIgnoreCase(selectedCategory)) {
+                    // Rows come from the repository's cached view sorted alphabetically by ID
+                    return session.browse(null);
+                }
+                return session.browse(selectedCategory);
             }
-            tableModel.addRow(rowData);
-        }
 
-        // Refresh the entire frame
-        revalidate();
-        repaint();
-    }
-    /**
-     * Filters products based on the selected category.
-     *
-     * @param products         The list of products to filter.
-     * @param selectedCategory The selected category.
-     * @return A list of products belonging to the selected category.
-     */
-    private List<Product> filterProductsByCategory(List<Product> products, String selectedCategory) {
-        List<Product> filteredProducts = new ArrayList<>();
+            @Override
+            protected void done() {
+                if (isCancelled() || tableRefresh != this) {
+                    return;
+                }
+                try {
+                    tableModel.setProducts(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(ShoppingGUI.this, "Could not load the products: " + cause.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
 
-        for (Product product : products) {
-            String productCategory = (product instanceof Clothing) ? "Clothing" : "Electronics";
-            if (selectedCategory.equalsIgnoreCase(productCategory)) {
-                filteredProducts.add(product);
+                // Refresh the entire frame
+                revalidate();
+                repaint();
             }
-        }
-
-        return filteredProducts;
+        };
+        tableRefresh.execute();
     }
 
     /**
@@ -230,117 +271,49 @@ public class ShoppingGUI extends JFrame {
      * @param selectedRow The selected row in the table.
      */
     private void displaySelectedProductDetails(int selectedRow) {
-        selectedProductDetailsTextArea.setText("\nSelected Product - Details\n");
+        Product product = tableModel.getProductAt(selectedRow);
 
-        String productId = (String) tableModel.getValueAt(selectedRow, 0);
-        String productName = (String) tableModel.getValueAt(selectedRow, 1);
-        String category = (String) tableModel.getValueAt(selectedRow, 2);
-
-        selectedProductDetailsTextArea.append("\nProduct ID: " + productId);
-        selectedProductDetailsTextArea.append("\nCategory: " + category);
-        selectedProductDetailsTextArea.append("\nName: " + productName);
-
-        if ("Electronics".equalsIgnoreCase(category)) {
-            String brandAndWarranty = (String) tableModel.getValueAt(selectedRow, 4);
-            String[] brandAndWarrantyArray = brandAndWarranty.split(", ");
-            String brand = brandAndWarrantyArray[0];
-            String warranty = brandAndWarrantyArray[1];
-
-            selectedProductDetailsTextArea.append("\nBrand: " + brand);
-            selectedProductDetailsTextArea.append("\nWarranty: " + warranty);
-        } else if ("Clothing".equalsIgnoreCase(category)) {
-            String sizeAndColor = (String) tableModel.getValueAt(selectedRow, 4);
-            String[] sizeAndColorArray = sizeAndColor.split(", ");
-            String size = sizeAndColorArray[0];
-            String color = sizeAndColorArray[1];
-
-            selectedProductDetailsTextArea.append("\nSize: " + size);
-            selectedProductDetailsTextArea.append("\nColor: " + color);
-        }
-
-        // Retrieve the available items from the file
-        String availableItems = getAvailableItems(productId);
-        selectedProductDetailsTextArea.append("\nAvailable Items: " + availableItems);
-    }
-
-    /**
-     * Retrieves the available items for a specific product ID.
-     *
-     * @param productId The ID of the product.
-     * @return The number of available items or "N/A" if the product is not found.
-     */
-    private String getAvailableItems(String productId) {
-        // Load products from the file
-        List<Product> products = shoppingManager.loadProductsFromFile();
-
-        // Search for the product with the specified ID
-        for (Product product : products) {
-            if (productId.equals(product.getProductId())) {
-                // Return the available items for the found product
-                return String.valueOf(product.getAvaliableItems());
-            }
+        selectedProductDetailsTextArea.setText("\nSelected Product - Details\n");
+        selectedProductDetailsTextArea.append("\nProduct ID: " + product.getProductId());
+        selectedProductDetailsTextArea.append("\nCategory: " + product.getType());
+        selectedProductDetailsTextArea.append("\nName: " + product.getProductName());
+
+        if (product instanceof Electronics electronics) {
+            selectedProductDetailsTextArea.append("\nBrand: " + electronics.getBrand());
+            selectedProductDetailsTextArea.append("\nWarranty: " + electronics.getWarrantyPeriod() + " years warranty");
+        } else if (product instanceof Clothing clothing) {
+            selectedProductDetailsTextArea.append("\nSize: " + clothing.getSize());
+            selectedProductDetailsTextArea.append("\nColor: " + clothing.getColor());
         }
 
-        // If the product is not found, return a default value
-        return "N/A";
+        selectedProductDetailsTextArea.append("\nAvailable Items: " + session.getAvailable(product.getProductId()));
     }
 
     /**
      * Handles the addition of a selected product to the shopping cart.
-     * Retrieves product details, deducts the available quantity, and adds the product to the cart.
+     * Reserves one item of the product for the cart, and adds the product to the cart.
+     * The stock is only taken off the catalog when the cart is checked out.
      * Displays appropriate messages for success and out-of-stock situations.
      *
      * @param selectedRow The selected row from the product table.
      */
     private void addToShoppingCart(int selectedRow) {
-        String productId = (String) tableModel.getValueAt(selectedRow, 0);
-        String productName = (String) tableModel.getValueAt(selectedRow, 1);
-        String category = (String) tableModel.getValueAt(selectedRow, 2);
-
-        // Retrieve the product from the productList based on the productId
-        Product selectedProduct = getProductById(productId);
-
-        if (selectedProduct != null && selectedProduct.getAvaliableItems() > 0) {
-            // Reduce the available items by 1
-            selectedProduct.setAvaliableItems(selectedProduct.getAvaliableItems() - 1);
-
-            String productInfo;
-            if ("Electronics".equalsIgnoreCase(category)) {
-                String brandAndWarranty = (String) tableModel.getValueAt(selectedRow, 4);
-                String[] brandAndWarrantyArray = brandAndWarranty.split(", ");
-                String brand = brandAndWarrantyArray[0];
-                String warranty = brandAndWarrantyArray[1];
-                productInfo = "Brand: " + brand + ", Warranty: " + warranty;
-            } else if ("Clothing".equalsIgnoreCase(category)) {
-                String sizeAndColor = (String) tableModel.getValueAt(selectedRow, 4);
-                String[] sizeAndColorArray = sizeAndColor.split(", ");
-                String size = sizeAndColorArray[0];
-                String color = sizeAndColorArray[1];
-                productInfo = "Size: " + size + ", Color: " + color;
-            } else {
-                // Default case if the category is not recognized
-                productInfo = "Info not available";
-            }
-
-            // Get quantity and calculate total price (you can modify this logic based on your requirement)
-            int quantity = 1; // You may adjust the quantity as needed
-            double totalPrice = Double.parseDouble(tableModel.getValueAt(selectedRow, 3).toString()) * quantity;
+        Product selectedProduct = tableModel.getProductAt(selectedRow);
 
-            // Format the product details for the shopping cart
-            String formattedProduct = productId + ", " + productName + ", " + category + ", " + productInfo;
+        int quantity = 1; // You may adjust the quantity as needed
 
-            // Check if shoppingCartGUI is null and create a new instance
-            if (shoppingCartGUI == null) {
-                shoppingCartGUI = new ShoppingCartGUI();
-            }
-
-            // Add the details to the shopping cart
-            shoppingCartGUI.addToCartTable(formattedProduct, quantity, totalPrice);
+        // Check if shoppingCartGUI is null and create a new instance
+        if (shoppingCartGUI == null) {
+            shoppingCartGUI = new ShoppingCartGUI(session);
+        }
 
+        // Add the product to the shopping cart, reserving the items so no other cart can take them
+        if (shoppingCartGUI.addToCart(selectedProduct, quantity)) {
             // Display a success message
             JOptionPane.showMessageDialog(this, "Product added to cart successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-            // Refresh the table after adding to the cart
-            refreshTable("All");
+            // Refresh the stock highlighting and details of the row that changed
+            tableModel.stockChanged(selectedRow);
+            displaySelectedProductDetails(selectedRow);
 
         } else {
             JOptionPane.showMessageDialog(this, "Product is out of stock!", "Out of Stock", JOptionPane.WARNING_MESSAGE);
@@ -348,22 +321,6 @@ public class ShoppingGUI extends JFrame {
     }
 
 
-    /**
-     * Helper method to get a product by its ID from the productList.
-     *
-     * @param productId The ID of the product to retrieve.
-     * @return The Product object corresponding to the given ID, or null if not found.
-     */
-    private Product getProductById(String productId) {
-        for (Product product : shoppingManager.loadProductsFromFile()) {
-            if (productId.equals(product.getProductId())) {
-                return product;
-            }
-        }
-        return null;
-    }
-
-
     /**
     * Main method to launch the shopping application using SwingUtilities.invokeLater.
     * It initializes a WestminsterShoppingManager and creates an instance of the ShoppingGUI.
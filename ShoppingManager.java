@@ -12,4 +12,12 @@ public interface ShoppingManager {
     void loadProductsFromTextFile();
 
     List<Product> loadProductsFromFile();
+
+    ProductRepository getCatalog();
+
+    Product findProductById(String productId);
+
+    ShoppingService getShoppingService();
+
+    InventoryService getInventory();
 }
@@ -0,0 +1,216 @@
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Keeps the shopping sessions of every signed-in user and runs their operations.
+ * <p>
+ * Sessions are plain objects keyed by username, so one process can hold as many as memory allows.
+ * A session left unused for longer than {@code -Dwsm.session.idleTimeout} seconds (30 minutes by
+ * default) is closed in the background and its reserved items released, so clients that start
+ * sessions and walk away do not fill the map; sessions shown in a window are kept open until the
+ * window closes. A closed session refuses further use, and {@link #withSession} and {@link #submit}
+ * start a new one for the user instead.
+ * <p>
+ * Operations submitted with {@link #submit} run on virtual threads when the JVM has them (Java 21
+ * and later), one per operation; on older JVMs they share a fixed pool of daemon threads.
+ */
+public class ShoppingService implements Closeable {
+    // Threads per core when virtual threads are not available; operations mostly wait on the write-ahead log
+    private static final int THREADS_PER_CORE = 4;
+    // Seconds a session may go unused before it is closed, and how often idle sessions are looked for
+    private static final long IDLE_TIMEOUT_SECONDS = Long.getLong("wsm.session.idleTimeout", 30 * 60);
+    private static final long IDLE_CHECK_INTERVAL_SECONDS = 30;
+    private static final LongAdder EXPIRED = MetricsRegistry.getDefault().counter("session.expired");
+
+    private final WestminsterShoppingManager shoppingManager;
+    private final Map<String, ShoppingSession> sessions = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final ScheduledExecutorService idleReaper;
+
+    /**
+     * Constructor for ShoppingService.
+     *
+     * @param shoppingManager The manager holding the catalog.
+     */
+    public ShoppingService(WestminsterShoppingManager shoppingManager) {
+        this.shoppingManager = shoppingManager;
+        this.executor = newSessionExecutor();
+        this.idleReaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        idleReaper.scheduleWithFixedDelay(this::closeIdleSessions, IDLE_CHECK_INTERVAL_SECONDS,
+                IDLE_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        MetricsRegistry.getDefault().gauge("session.count", sessions::size);
+    }
+
+    /**
+     * Returns the session of a user, starting one if the user has none or the last one was closed.
+     *
+     * @param user The shopper.
+     * @return The user's session.
+     */
+    public ShoppingSession openSession(User user) {
+        return sessions.compute(user.getUsername(), (username, session) ->
+                session == null || session.isClosed() ? new ShoppingSession(user, shoppingManager) : session);
+    }
+
+    /**
+     * Returns the session of a user like {@link #openSession(User)}, optionally keeping it from being
+     * closed as idle, as a window showing the cart needs. Call {@link ShoppingSession#setKeepOpen} with
+     * false when the window closes.
+     *
+     * @param user     The shopper.
+     * @param keepOpen True to keep the session open until told otherwise.
+     * @return The user's session.
+     */
+    public ShoppingSession openSession(User user, boolean keepOpen) {
+        while (true) {
+            ShoppingSession session = openSession(user);
+            // The session may have been closed between being looked up and being marked
+            if (session.setKeepOpen(keepOpen)) {
+                return session;
+            }
+        }
+    }
+
+    /**
+     * Runs an operation on a user's session, starting the session if needed. If the session is closed
+     * while the operation waits for it, the operation runs again on a new session.
+     *
+     * @param user      The shopper.
+     * @param operation The operation, e.g. {@code session -> session.addToCart("E1", 1)}.
+     * @return The operation's result.
+     */
+    public <T> T withSession(User user, Function<ShoppingSession, T> operation) {
+        while (true) {
+            ShoppingSession session = openSession(user);
+            try {
+                return operation.apply(session);
+            } catch (IllegalStateException e) {
+                if (!session.isClosed()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the session of a user, or null if the user has none.
+     */
+    public ShoppingSession getSession(String username) {
+        return sessions.get(username);
+    }
+
+    /**
+     * Ends a user's session and releases the items reserved for the cart.
+     *
+     * @param username The user whose session ends.
+     */
+    public void closeSession(String username) {
+        ShoppingSession session = sessions.remove(username);
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    /**
+     * Takes a product that has been removed from the catalog out of every cart.
+     *
+     * @param removed The removed product.
+     */
+    void productRemoved(Product removed) {
+        for (ShoppingSession session : sessions.values()) {
+            session.productRemoved(removed);
+        }
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Runs an operation on a user's session in the background, starting the session if needed.
+     *
+     * @param user      The shopper.
+     * @param operation The operation, e.g. {@code session -> session.addToCart("E1", 1)}.
+     * @return A future completed with the operation's result.
+     */
+    public <T> CompletableFuture<T> submit(User user, Function<ShoppingSession, T> operation) {
+        return CompletableFuture.supplyAsync(() -> withSession(user, operation), executor);
+    }
+
+    /**
+     * Returns the executor operations run on, so callers such as a server can share it.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Closes the sessions that have not been used within the idle timeout and are not kept open.
+     */
+    void closeIdleSessions() {
+        closeIdleSessions(System.currentTimeMillis() - IDLE_TIMEOUT_SECONDS * 1000);
+    }
+
+    /**
+     * Closes the sessions not used since the given time and not kept open.
+     *
+     * @param idleSince The time in milliseconds since the epoch.
+     */
+    void closeIdleSessions(long idleSince) {
+        for (Map.Entry<String, ShoppingSession> entry : sessions.entrySet()) {
+            ShoppingSession session = entry.getValue();
+            // Idleness is checked again under the session's lock, so a session in use stays open
+            if (session.closeIfIdle(idleSince)) {
+                sessions.remove(entry.getKey(), session);
+                EXPIRED.increment();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting operations and stops closing idle sessions. Sessions are kept until they are closed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        idleReaper.shutdown();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor is looked up at run time so the code still builds for Java 17
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Runtime.getRuntime().availableProcessors() * THREADS_PER_CORE;
+            return Executors.newFixedThreadPool(threads, new SessionThreadFactory());
+        }
+    }
+
+    /**
+     * Names the fallback pool's threads and makes them daemons, so they never keep the application running.
+     */
+    private static class SessionThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "shopping-session-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
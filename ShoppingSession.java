@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One shopper's view of the shop: browsing the catalog, a cart and checkout, with no user interface.
+ * Items added to the cart are reserved through the {@link InventoryService} until checkout, and orders
+ * are recorded in the {@link OrderHistory}, which decides whether the cart gets first-purchase promotions.
+ * <p>
+ * A session is safe to use from several threads; operations on the same session run one at a time,
+ * while different sessions never wait for each other. The cart is guarded by a ReentrantLock rather
+ * than the session's monitor, because checkout waits on the write-ahead log while holding it and a
+ * virtual thread blocked inside a monitor would pin its carrier thread.
+ */
+public class ShoppingSession {
+    private final User user;
+    private final WestminsterShoppingManager shoppingManager;
+    private final InventoryService inventory;
+    private final OrderHistory orderHistory;
+    private final ShoppingCart cart;
+    private final ReentrantLock lock = new ReentrantLock();
+    // When the session was last used, so idle sessions can be closed
+    private volatile long lastUsedMillis = System.currentTimeMillis();
+    // Set once the session is closed; a closed session refuses further use
+    private volatile boolean closed;
+    // Set while a window shows the session, which must then not be closed as idle
+    private boolean keepOpen;
+
+    /**
+     * Constructor for ShoppingSession.
+     *
+     * @param user            The shopper.
+     * @param shoppingManager The manager holding the catalog.
+     */
+    public ShoppingSession(User user, WestminsterShoppingManager shoppingManager) {
+        this.user = user;
+        this.shoppingManager = shoppingManager;
+        this.inventory = shoppingManager.getInventory();
+        this.orderHistory = shoppingManager.getOrderHistory();
+        this.cart = new ShoppingCart();
+        cart.setFirstPurchase(!orderHistory.hasOrdered(user.getUsername()));
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Returns when the session was last used, in milliseconds since the epoch.
+     */
+    public long getLastUsedMillis() {
+        return lastUsedMillis;
+    }
+
+    /**
+     * Returns true once the session has been closed, after which its methods that use the cart throw
+     * {@link IllegalStateException}.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Keeps the session from being closed as idle, for example while a window shows its cart.
+     *
+     * @param keepOpen True to keep the session open, false to let it expire again.
+     * @return False if the session is already closed.
+     */
+    public boolean setKeepOpen(boolean keepOpen) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            this.keepOpen = keepOpen;
+            lastUsedMillis = System.currentTimeMillis();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lists the products of a category sorted by product ID.
+     *
+     * @param category The category, or null or "All" for every product.
+     * @return A read-only list of the products.
+     */
+    public List<Product> browse(String category) {
+        ProductRepository catalog = shoppingManager.getCatalog();
+        return category == null || "All".equals(category) ? catalog.sortedById(null) : catalog.sortedById(category);
+    }
+
+    /**
+     * Searches the products of a category by words of their ID, name, brand and color.
+     *
+     * @param query    The words to look for; prefixes and small typos match too.
+     * @param category The category, or null or "All" for every product.
+     * @param limit    The maximum number of products to return.
+     * @return The best matching products, best first.
+     */
+    public List<Product> search(String query, String category, int limit) {
+        ProductRepository catalog = shoppingManager.getCatalog();
+        return catalog.search(query, category == null || "All".equals(category) ? null : category, limit);
+    }
+
+    public Product findProduct(String productId) {
+        return shoppingManager.findProductById(productId);
+    }
+
+    /**
+     * Returns the number of items of a product that can still be added to a cart.
+     */
+    public int getAvailable(String productId) {
+        return inventory.getAvailable(productId);
+    }
+
+    /**
+     * Reserves items of a product and adds them to the cart.
+     *
+     * @param productId The ID of the product.
+     * @param quantity  The number of items to add.
+     * @return The cart item for the product, or null if the product does not exist or is out of stock.
+     */
+    public CartItem addToCart(String productId, int quantity) {
+        begin();
+        try {
+            Product product = shoppingManager.findProductById(productId);
+            if (product == null || !inventory.reserve(cart.getId(), productId, quantity)) {
+                return null;
+            }
+            return cart.addProduct(product, quantity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a product from the cart and releases its reserved items.
+     *
+     * @param productId The ID of the product.
+     * @return False if the product was not in the cart.
+     */
+    public boolean removeFromCart(String productId) {
+        begin();
+        try {
+            CartItem item = cart.removeProduct(productId);
+            if (item == null) {
+                return false;
+            }
+            inventory.release(cart.getId(), productId, item.getQuantity());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of the items in the cart, in the order they were first added.
+     */
+    public List<CartItem> getCartItems() {
+        begin();
+        try {
+            return new ArrayList<>(cart.getItems());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isCartEmpty() {
+        begin();
+        try {
+            return cart.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cart total in minor units, see {@link Money}.
+     */
+    public long getTotal() {
+        begin();
+        try {
+            return cart.getPricing().getTotal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDiscount() {
+        begin();
+        try {
+            return cart.getPricing().getDiscount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getFinalTotal() {
+        begin();
+        try {
+            return cart.getPricing().getFinalTotal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Buys the items in the cart and empties it.
+     *
+     * @return True if the order was placed, false if some items are no longer in stock.
+     */
+    public boolean checkout() {
+        begin();
+        try {
+            if (cart.isEmpty()) {
+                return false;
+            }
+            Map<String, Integer> quantities = new LinkedHashMap<>();
+            for (CartItem item : cart.getItems()) {
+                quantities.put(item.getProduct().getProductId(), item.getQuantity());
+            }
+            if (!inventory.commit(cart.getId(), quantities)) {
+                return false;
+            }
+            long finalTotal = cart.getPricing().getFinalTotal();
+            cart.clear();
+            // The stock is already taken, so the order stands even if it cannot be added to the history
+            try {
+                orderHistory.recordOrder(user.getUsername(), finalTotal);
+            } catch (IOException e) {
+                System.err.println("Error recording the order of " + user.getUsername() + ": " + e.getMessage());
+            }
+            cart.setFirstPurchase(false);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a product that has been removed from the catalog out of the cart, so checkout does not fail on it.
+     * Its reservation has already been dropped, so nothing is released, and this does not count as use.
+     *
+     * @param removed The product removed from the catalog; a product added again under its ID stays in the cart.
+     */
+    void productRemoved(Product removed) {
+        lock.lock();
+        try {
+            CartItem item = cart.getItem(removed.getProductId());
+            if (!closed && item != null && item.getProduct() == removed) {
+                cart.removeProduct(removed.getProductId());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the session: the cart is emptied and its reserved items are released.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closeLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the session if it has not been used since the given time and is not kept open.
+     * The time is checked under the session's lock, so a session in use is never closed.
+     *
+     * @param idleSince The time in milliseconds since the epoch.
+     * @return True if the session was closed by this call.
+     */
+    public boolean closeIfIdle(long idleSince) {
+        lock.lock();
+        try {
+            if (closed || keepOpen || lastUsedMillis >= idleSince) {
+                return false;
+            }
+            closeLocked();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeLocked() {
+        closed = true;
+        keepOpen = false;
+        inventory.releaseAll(cart.getId());
+        cart.clear();
+    }
+
+    // Takes the session's lock and records the use, keeping the session from being closed as idle
+    private void begin() {
+        lock.lock();
+        if (closed) {
+            lock.unlock();
+            throw new IllegalStateException("The shopping session has been closed");
+        }
+        lastUsedMillis = System.currentTimeMillis();
+    }
+}
@@ -3,18 +3,29 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 public class UserLoginGUI extends JFrame {
     private JTextField usernameField;
     private JPasswordField passwordField;
-    private Map<String, String> userCredentials;
+    private JButton loginButton;
+    private JButton registerButton;
+    private LoginService loginService;
 
-    // Constructor to initialize the UserLoginGUI
-    public UserLoginGUI() {
-        // Load existing user credentials from file
-        userCredentials = loadUserCredentialsFromFile();
+    // Shop opened after a successful login, shared by every login in this window
+    private final WestminsterShoppingManager shoppingManager;
+
+    // Constructor to initialize the UserLoginGUI for the given shop
+    public UserLoginGUI(WestminsterShoppingManager shoppingManager) {
+        this.shoppingManager = shoppingManager;
+
+        // Load existing user credentials from file, creating it if it doesn't exist
+        try {
+            loginService = new LoginService(new CredentialStore(Paths.get("userCredentials.txt")));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load userCredentials.txt", e);
+        }
 
         setTitle("User Login Interface");
         setSize(300, 250);
@@ -30,8 +41,8 @@ public class UserLoginGUI extends JFrame {
         usernameField = new JTextField();
         JLabel passwordLabel = new JLabel("Password:");
         passwordField = new JPasswordField();
-        JButton loginButton = new JButton("Login");
-        JButton registerButton = new JButton("Register");
+        loginButton = new JButton("Login");
+        registerButton = new JButton("Register");
 
         // Adjusted button and text field sizes
         Dimension buttonSize = new Dimension(80, 35);
@@ -47,19 +58,28 @@ public class UserLoginGUI extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) {
                 String username = usernameField.getText();
-                String password = new String(passwordField.getPassword());
-
-                if (validateLogin(username, password)) {
-                    JOptionPane.showMessageDialog(UserLoginGUI.this, "Login successful!");
-
-                    // Open ShoppingGUI after successful login
-                    WestminsterShoppingManager shoppingManager = new WestminsterShoppingManager();
-                    ShoppingGUI shoppingGUI = new ShoppingGUI(shoppingManager);
-                    shoppingGUI.refreshTable("All");
-                    dispose(); // Close the login interface
-                } else {
-                    JOptionPane.showMessageDialog(UserLoginGUI.this, "Invalid username or password");
-                }
+                char[] password = passwordField.getPassword();
+
+                // Hashing the password is slow, so it runs on the login workers and the result comes back to the EDT
+                setButtonsEnabled(false);
+                loginService.login(username, password).whenComplete((result, failure) -> SwingUtilities.invokeLater(() -> {
+                    setButtonsEnabled(true);
+                    if (failure != null) {
+                        showError("log in", failure);
+                    } else if (result == LoginService.Result.SUCCESS) {
+                        JOptionPane.showMessageDialog(UserLoginGUI.this, "Login successful!");
+
+                        // Open ShoppingGUI after successful login
+                        ShoppingGUI shoppingGUI = new ShoppingGUI(shoppingManager, new User(username, null));
+                        shoppingGUI.refreshTable("All");
+                        dispose(); // Close the login interface
+                    } else if (result == LoginService.Result.THROTTLED) {
+                        JOptionPane.showMessageDialog(UserLoginGUI.this, "Too many login attempts. Please try again later.");
+                    } else {
+                        JOptionPane.showMessageDialog(UserLoginGUI.this, "Invalid username or password");
+                    }
+                }));
+                Arrays.fill(password, '\0');
             }
         });
 
@@ -67,13 +87,33 @@ public class UserLoginGUI extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) {
                 String username = usernameField.getText();
-                String password = new String(passwordField.getPassword());
-
-                if (registerUser(username, password)) {
-                    JOptionPane.showMessageDialog(UserLoginGUI.this, "Registration successful!");
-                } else {
-                    JOptionPane.showMessageDialog(UserLoginGUI.this, "Username already exists");
-                }
+                char[] password = passwordField.getPassword();
+
+                setButtonsEnabled(false);
+                loginService.register(username, password).whenComplete((result, failure) -> SwingUtilities.invokeLater(() -> {
+                    setButtonsEnabled(true);
+                    if (failure != null) {
+                        showError("register", failure);
+                        return;
+                    }
+                    switch (result) {
+                        case REGISTERED:
+                            JOptionPane.showMessageDialog(UserLoginGUI.this, "Registration successful!");
+                            break;
+                        case USERNAME_TAKEN:
+                            JOptionPane.showMessageDialog(UserLoginGUI.this, "Username already exists");
+                            break;
+                        case INVALID_USERNAME:
+                            JOptionPane.showMessageDialog(UserLoginGUI.this, "Usernames may not be empty or contain ':'");
+                            break;
+                        case THROTTLED:
+                            JOptionPane.showMessageDialog(UserLoginGUI.this, "Too many attempts. Please try again later.");
+                            break;
+                        default:
+                            JOptionPane.showMessageDialog(UserLoginGUI.this, "The account could not be saved. Please try again.");
+                    }
+                }));
+                Arrays.fill(password, '\0');
             }
         });
 
@@ -85,78 +125,26 @@ public class UserLoginGUI extends JFrame {
         add(loginButton);
         add(registerButton);
 
-        // Explicitly check and create the userCredentials.txt file
-        createCredentialsFile();
-
         pack();
         setVisible(true);
     }
 
-    // Method to validate user login
-    private boolean validateLogin(String username, String password) {
-        return userCredentials.containsKey(username) && userCredentials.get(username).equals(password);
+    // Method to enable or disable the buttons while a login or registration is being checked
+    private void setButtonsEnabled(boolean enabled) {
+        loginButton.setEnabled(enabled);
+        registerButton.setEnabled(enabled);
     }
 
-    // Method to register a new user
-    private boolean registerUser(String username, String password) {
-        if (!userCredentials.containsKey(username)) {
-            userCredentials.put(username, password);
-            saveUserCredentialsToFile();
-            return true;
-        }
-        return false;
-    }
-
-    // Method to load user credentials from a file
-    private Map<String, String> loadUserCredentialsFromFile() {
-        Map<String, String> credentials = new HashMap<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader("userCredentials.txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Skip empty lines
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-                String[] parts = line.split(":");
-                if (parts.length == 2) {
-                    credentials.put(parts[0], parts[1]);
-                } else {
-                    System.err.println("Invalid line format in userCredentials.txt: " + line);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return credentials;
-    }
-
-    // Method to save user credentials to a file
-    private void saveUserCredentialsToFile() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter("userCredentials.txt"))) {
-            for (Map.Entry<String, String> entry : userCredentials.entrySet()) {
-                writer.println(entry.getKey() + ":" + entry.getValue());
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    // Method to create the userCredentials.txt file if it doesn't exist
-    private void createCredentialsFile() {
-        File file = new File("userCredentials.txt");
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    // Method to tell the user that a login or registration failed with an error rather than a wrong password
+    private void showError(String action, Throwable failure) {
+        System.err.println("Could not " + action + ": " + failure);
+        JOptionPane.showMessageDialog(this, "Could not " + action + ". Please try again.", "Error", JOptionPane.ERROR_MESSAGE);
     }
 
     // Main method to launch the UserLoginGUI
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
-            UserLoginGUI userLoginGUI = new UserLoginGUI();
+            UserLoginGUI userLoginGUI = new UserLoginGUI(new WestminsterShoppingManager());
         });
     }
 }
@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the write-ahead log: changes survive a restart without a checkpoint, a torn record at the end
+ * of the log is cut off, a checkpoint empties the log, changes that cannot be logged are undone, and
+ * changes made while the catalog is reloaded are not lost. Run with {@code java WalCheck}.
+ */
+public class WalCheck {
+    // Products added while another thread keeps reloading and checkpointing the catalog
+    private static final int CONCURRENT_ADDS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("wal-check");
+        try {
+            Path productFile = directory.resolve("productList.txt");
+            Path logFile = directory.resolve("productList.wal");
+            Files.createFile(productFile);
+
+            checkReplay(productFile);
+            checkTornRecord(productFile, logFile);
+            checkCheckpoint(productFile, logFile);
+            checkRollback(productFile);
+            checkChangesDuringReload(directory.resolve("reload.txt"));
+        } finally {
+            Checks.deleteDirectory(directory);
+        }
+        Checks.finish("WalCheck");
+    }
+
+    private static void checkReplay(Path productFile) {
+        try (WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile)) {
+            manager.addProduct(new Electronics("E1", "Phone", 5, 49_999, "Acme", 12));
+            manager.addProduct(new Clothing("C1", "Shirt", 10, 1_999, "M", "Blue"));
+            manager.addProduct(new Electronics("E2", "Radio", 1, 2_500, "Acme", 6));
+            manager.updateStock("E1", 3);
+            manager.updatePrice("C1", 2_499);
+            manager.removeProduct("E2");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // Nothing was checkpointed, so the changes come back from the log alone
+        try (WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile)) {
+            Product phone = manager.findProductById("E1");
+            Product shirt = manager.findProductById("C1");
+            Checks.check(manager.getCatalog().size() == 2, "replay restores every product added and not removed");
+            Checks.check(phone != null && phone.getAvailableItems() == 3, "replay applies stock changes");
+            Checks.check(shirt != null && shirt.getPrice() == 2_499, "replay applies price changes");
+            Checks.check(manager.findProductById("E2") == null, "replay applies removals");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void checkTornRecord(Path productFile, Path logFile) throws IOException {
+        long completeLength = Files.size(logFile);
+        // A crash in the middle of a write leaves a record without its line break
+        Files.write(logFile, "STOCK\tE1\t9".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        try (WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile)) {
+            Checks.check(manager.findProductById("E1").getAvailableItems() == 3, "a torn record is not applied");
+            Checks.check(Files.size(logFile) == completeLength, "a torn record is cut off the log");
+        }
+    }
+
+    private static void checkCheckpoint(Path productFile, Path logFile) throws IOException {
+        try (WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile)) {
+            manager.checkpoint();
+            Checks.check(Files.size(logFile) == 0, "a checkpoint empties the log");
+        }
+        try (WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile)) {
+            Checks.check(manager.getCatalog().size() == 2 && manager.findProductById("E1").getAvailableItems() == 3
+                    && manager.findProductById("C1").getPrice() == 2_499, "a checkpoint keeps every change");
+        }
+    }
+
+    private static void checkRollback(Path productFile) throws IOException {
+        WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile);
+        manager.getCatalog();
+        // A closed log fails every append, as a full disk would
+        manager.close();
+
+        Checks.check(throwsUncheckedIO(() -> manager.addProduct(new Electronics("E3", "Lamp", 2, 999, "Acme", 6)))
+                && manager.findProductById("E3") == null, "an add that cannot be logged is undone");
+        Checks.check(throwsUncheckedIO(() -> manager.updateStock("E1", 8))
+                && manager.findProductById("E1").getAvailableItems() == 3, "a stock change that cannot be logged is undone");
+        Checks.check(throwsUncheckedIO(() -> manager.updatePrice("C1", 1))
+                && manager.findProductById("C1").getPrice() == 2_499, "a price change that cannot be logged is undone");
+        Checks.check(throwsUncheckedIO(() -> manager.removeProduct("C1"))
+                && manager.findProductById("C1") != null, "a removal that cannot be logged is undone");
+    }
+
+    private static void checkChangesDuringReload(Path productFile) throws Exception {
+        Files.createFile(productFile);
+        try (WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile)) {
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            Thread reloader = new Thread(() -> {
+                int count = 0;
+                while (!executor.isTerminated()) {
+                    manager.getCatalogCache().invalidate();
+                    manager.getCatalog();
+                    if (++count % 10 == 0) {
+                        try {
+                            manager.checkpoint();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }
+            });
+            reloader.start();
+            for (int i = 0; i < CONCURRENT_ADDS; i++) {
+                String productId = "R" + i;
+                executor.execute(() -> manager.addProduct(new Electronics(productId, "Reload", 1, 100, "Acme", 1)));
+            }
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            reloader.join(TimeUnit.MINUTES.toMillis(1));
+            Checks.check(manager.getCatalog().size() == CONCURRENT_ADDS, "no change made during a reload is lost in memory");
+        }
+        try (WestminsterShoppingManager manager = new WestminsterShoppingManager(productFile)) {
+            Checks.check(manager.getCatalog().size() == CONCURRENT_ADDS, "no change made during a reload is lost on restart");
+        }
+    }
+
+    private static boolean throwsUncheckedIO(Runnable change) {
+        try {
+            change.run();
+            return false;
+        } catch (UncheckedIOException e) {
+            return true;
+        }
+    }
+}
@@ -1,11 +1,114 @@
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.*;
 import java.util.Collections;
-public class WestminsterShoppingManager{
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+public class WestminsterShoppingManager implements ShoppingManager, Closeable {
     Scanner scanner = new Scanner(System.in);
-    private final List<Product> productList = new ArrayList<>();
     private static final String FILE_PATH = "productList.txt";
+    // How often the background checkpointer folds the write-ahead log into productList.txt
+    private static final long CHECKPOINT_INTERVAL_SECONDS = 30;
+    // How often productList.txt is checked for changes made outside the application
+    private static final long FILE_CHECK_INTERVAL_SECONDS = 2;
+    // Product files at least this large are parsed on all cores instead of line by line
+    private static final long PARALLEL_LOAD_THRESHOLD = 16 * 1024 * 1024;
+    // Maximum number of products in the catalog; set with -Dwsm.catalog.capacity, unlimited by default
+    private static final int CATALOG_CAPACITY = Integer.getInteger("wsm.catalog.capacity", Integer.MAX_VALUE);
+    // Seconds a cart's reservations are kept after its last change; set with -Dwsm.reservation.ttl
+    private static final long RESERVATION_TTL_SECONDS = Long.getLong("wsm.reservation.ttl", 15 * 60);
+    // Time spent loading and checkpointing the catalog, see MetricsRegistry
+    private static final LatencyHistogram LOAD_TIME = MetricsRegistry.getDefault().histogram("catalog.load");
+    private static final LongAdder LOADED_RECORDS = MetricsRegistry.getDefault().counter("catalog.load.records");
+    private static final LatencyHistogram CHECKPOINT_TIME = MetricsRegistry.getDefault().histogram("catalog.checkpoint");
     private boolean productsLoadedFromFile = false; // Initialized to false
+    // Parsed file contents, re-read only when productList.txt changes on disk
+    private final ProductCatalogCache catalogCache;
+    // Every change to the catalog is logged here before it is folded into productList.txt
+    private final CatalogWriteAheadLog writeAheadLog;
+    // Folds the log into productList.txt every CHECKPOINT_INTERVAL_SECONDS and watches the file for changes
+    private final ScheduledExecutorService checkpointer;
+    // Reserves stock for shopping carts; created the first time a cart needs it
+    private InventoryService inventory;
+    // Shoppers' sessions; created the first time someone shops
+    private ShoppingService shoppingService;
+    // Orders placed by each user, kept next to the product file; loaded the first time someone shops
+    private OrderHistory orderHistory;
+
+    // The product file, its write-ahead log, and its binary copy, which is loaded instead while it is current
+    private final Path productFile;
+    private final Path logFile;
+    private final Path binaryFile;
+    private final Path ordersFile;
+    // Products parsed per second by the last load
+    private volatile long loadRecordsPerSecond;
+    // Why the last load could not read the product file or its log; while set, the file is never overwritten
+    private volatile String loadFailure;
+    // Set when the last load skipped records it could not parse; the file is backed up before it is overwritten
+    private volatile boolean skippedRecordsOnLoad;
+
+    public WestminsterShoppingManager() {
+        this(Paths.get(FILE_PATH));
+    }
+
+    /**
+     * Constructor for a manager keeping its catalog in a specific product file. The write-ahead log
+     * is kept next to it, with the same name and a .wal extension, and a {@link BinaryCatalog} copy with
+     * a .bin extension that is loaded instead of the text while it is up to date. Only one manager at a time can use
+     * a product file; close the manager to hand the file over to another one.
+     *
+     * @param productFile The product file, e.g. a generated catalog for benchmarking.
+     * @throws UncheckedIOException If the write-ahead log cannot be opened or another manager is using it.
+     */
+    public WestminsterShoppingManager(Path productFile) {
+        String fileName = productFile.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        this.productFile = productFile;
+        String baseName = extension > 0 ? fileName.substring(0, extension) : fileName;
+        this.logFile = productFile.resolveSibling(baseName + ".wal");
+        this.binaryFile = productFile.resolveSibling(baseName + ".bin");
+        this.ordersFile = productFile.resolveSibling(baseName + ".orders");
+        this.catalogCache = new ProductCatalogCache(productFile, this::readProductsFromFile);
+        MetricsRegistry.getDefault().gauge("catalog.load.recordsPerSecond", () -> loadRecordsPerSecond);
+        MetricsRegistry.getDefault().gauge("catalog.size", () -> catalogCache.isLoaded() ? getCatalog().size() : 0);
+        try {
+            writeAheadLog = new CatalogWriteAheadLog(logFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the write-ahead log " + logFile, e);
+        }
+
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "catalog-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                if (writeAheadLog.hasRecords()) {
+                    checkpoint();
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing catalog checkpoint: " + e.getMessage());
+            }
+        }, CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        // Reads of the catalog never touch the disk; changes to the file are picked up here instead
+        checkpointer.scheduleWithFixedDelay(catalogCache::checkForChanges,
+                FILE_CHECK_INTERVAL_SECONDS, FILE_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
     public void manageProducts() {
         Scanner scanner = new Scanner(System.in);
         int choice;
@@ -16,7 +119,10 @@ public class WestminsterShoppingManager{
             System.out.println("2. Delete a product");
             System.out.println("3. Print the list of products");
             System.out.println("4. Save products in a file");
-            System.out.println("5. Exit");
+            System.out.println("5. Compact the product file");
+            System.out.println("6. Show metrics");
+            System.out.println("7. Import products from a CSV or JSON file");
+            System.out.println("8. Exit");
 
             try {
                 System.out.print("Enter your choice: ");
@@ -37,25 +143,29 @@ public class WestminsterShoppingManager{
                         saveProductsToFile();
                         break;
                     case 5:
+                        compactProductFile();
+                        break;
+                    case 6:
+                        printMetrics();
+                        break;
+                    case 7:
+                        importProducts();
+                        break;
+                    case 8:
                         System.out.println("Exiting Westminster Shopping Manager. Goodbye!");
                         break;
                     default:
                         System.out.println("Invalid choice. Please try again.");
                 }
             }catch (InputMismatchException e) {
-                System.out.println("Invalid input. Please enter a number between 1 and 5.");
+                System.out.println("Invalid input. Please enter a number between 1 and 8.");
                 scanner.nextLine(); // clear the invalid input from the scanner
                 choice = 0; // Reset choice to force re-entry in the loop
             }
-        } while (choice != 5);
+        } while (choice != 8);
     }
 
     public void addNewProduct() {
-        if (productList.size() >= 50) {
-            System.out.println("Maximum limit of 50 products reached. Cannot add more products.");
-            return;
-        }
-
         int productTypeChoice = 0;
 
         while (true) {
@@ -79,8 +189,28 @@ public class WestminsterShoppingManager{
             }
         }
 
-        System.out.print("Enter product ID: ");
-        String productId = scanner.nextLine();
+        String productId;
+        while (true) {
+            System.out.print("Enter product ID: ");
+            productId = scanner.nextLine().trim();
+            try {
+                ProductValidator.checkProductId(productId);
+                break;
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid input: " + e.getMessage());
+            }
+        }
+        // As in addProducts, a full catalog only refuses new IDs; an existing one is replaced, so ask first
+        if (getCatalog().contains(productId)) {
+            System.out.print("A product with ID " + productId + " already exists. Replace it? (y/n): ");
+            if (!scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                System.out.println("Product not added.");
+                return;
+            }
+        } else if (getCatalog().size() >= CATALOG_CAPACITY) {
+            System.out.println("Maximum limit of " + CATALOG_CAPACITY + " products reached. Cannot add more products.");
+            return;
+        }
 
         System.out.print("Enter product name: ");
         String productName = scanner.nextLine();
@@ -93,29 +223,33 @@ public class WestminsterShoppingManager{
                 System.out.print("Enter number of available items: ");
                 int input = scanner.nextInt();
 
-                if (input > 0) {
-                    availableItems = input;
-                    validInput = true;
-                } else {
-                    System.out.println("Invalid input. Please enter a non-negative integer.");
-                }
+                ProductValidator.checkAvailableItems(input);
+                availableItems = input;
+                validInput = true;
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid input: " + e.getMessage());
             } catch (InputMismatchException e) {
                 System.out.println("Invalid input. Please enter a valid integer.");
                 scanner.nextLine(); // Consume the invalid input
             }
         }
 
-        double price = 0.0;
+        long price = 0;
         validInput = false;
         while (!validInput) {
             try {
                 System.out.print("Enter price: Rs.");
-                price = scanner.nextDouble();
-                scanner.nextLine(); // Consume the newline character after reading a double
+                // Read as text and convert straight to minor units, so the price is never rounded through a double
+                price = Money.parse(scanner.next());
+                scanner.nextLine(); // Consume the rest of the line
+                ProductValidator.checkPrice(price);
                 validInput = true;
-            } catch (InputMismatchException e) {
+            } catch (NumberFormatException | ArithmeticException e) {
                 System.out.println("Invalid input. Please enter a valid number.");
                 scanner.nextLine(); // Consume the invalid input
+            } catch (IllegalArgumentException e) {
+                // The price was read but is not allowed; the line is already consumed
+                System.out.println("Invalid input: " + e.getMessage());
             }
         }
 
@@ -130,24 +264,28 @@ public class WestminsterShoppingManager{
                     try {
                         System.out.print("Enter warranty period in year: ");
                         warrantyPeriod = scanner.nextInt();
-                        if (warrantyPeriod < 0) {
-                            throw new InputMismatchException(); // If negative, treat as invalid input
-                        }
                         scanner.nextLine();
+                        ProductValidator.checkWarrantyPeriod(warrantyPeriod);
                         validInput = true;
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Invalid input: " + e.getMessage());
                     } catch (InputMismatchException e) {
                         System.out.println("Invalid input. Please enter a valid non-negative integer for warranty period.");
                         scanner.nextLine(); // Consume the invalid input
                     }
                 }
                 Electronics electronics = new Electronics(productId, productName, availableItems, price, brand, warrantyPeriod);
-                productList.add(electronics);
-                System.out.println("Electronics product added.");
+                try {
+                    addProduct(electronics);
+                    System.out.println("Electronics product added.");
+                } catch (UncheckedIOException e) {
+                    System.err.println("Error saving the product: " + e.getCause().getMessage());
+                }
                 break;
 
             case 2:
                 // List of clothing sizes
-                List<String> sizeOptions = Arrays.asList("S", "M", "L", "XL", "XXL");
+                List<String> sizeOptions = ProductValidator.CLOTHING_SIZES;
 
                 // Display available size options
                 System.out.println("Choose clothing size:");
@@ -175,153 +313,558 @@ public class WestminsterShoppingManager{
                 String color = scanner.nextLine();
 
                 Clothing clothing = new Clothing(productId, productName, availableItems, price, size, color);
-                productList.add(clothing);
-                System.out.println("Clothing product added.");
+                try {
+                    addProduct(clothing);
+                    System.out.println("Clothing product added.");
+                } catch (UncheckedIOException e) {
+                    System.err.println("Error saving the product: " + e.getCause().getMessage());
+                }
                 break;
             default:
                 System.out.println("Invalid product type choice.");
         }
     }
-    private void deleteProduct() {
-        // Load products from file
-        List<Product> loadedProducts = loadProductsFromFile();
-
-        // Combine loaded products with existing products
-        List<Product> combinedProducts = new ArrayList<>(productList);
-        combinedProducts.addAll(loadedProducts);
-
+    public void deleteProduct() {
         System.out.print("Enter product ID to delete: ");
         String productId = scanner.nextLine();
 
-        // Variable to keep track of the total number of products left
-        int totalProductsLeft = combinedProducts.size();
-
-        // Variable to store information about the deleted product
-        String deletedProductInfo = "";
-
-        // Iterate over a copy of the list to avoid concurrent modification
-        for (Product product : new ArrayList<>(combinedProducts)) {
-            if (product.getProductId().equals(productId)) {
-                deletedProductInfo = product.getType() + " - " + product.getProductId() + " " + product.getProductName();
-
-                // Remove the product from the list
-                combinedProducts.remove(product);
-
-                // Update the total number of products left
-                totalProductsLeft = combinedProducts.size();
-                break;
-            }
+        Product deletedProduct;
+        try {
+            deletedProduct = removeProduct(productId);
+        } catch (UncheckedIOException e) {
+            System.err.println("Error deleting the product: " + e.getCause().getMessage());
+            return;
         }
 
-        if (!deletedProductInfo.isEmpty()) {
+        if (deletedProduct != null) {
             // Display information about the deleted product
-            System.out.println(deletedProductInfo + " product removed successfully");
+            System.out.println(deletedProduct.getType() + " - " + deletedProduct.getProductId() + " "
+                    + deletedProduct.getProductName() + " product removed successfully");
         } else {
             // Product with the specified ID not found
             System.out.println("Product with ID " + productId + " not found.");
         }
 
         // Display the total number of products left in the system
-        System.out.println("Total number of products left in the system: " + totalProductsLeft);
+        System.out.println("Total number of products left in the system: " + getCatalog().size());
+    }
+    /**
+     * Prints the counters, gauges and latency histograms collected so far.
+     */
+    public void printMetrics() {
+        try {
+            MetricsRegistry.getDefault().dump(System.out);
+        } catch (IOException e) {
+            System.err.println("Error showing metrics: " + e.getMessage());
+        }
     }
     public void printProductList() {
-        // Load products from file
-        List<Product> loadedProducts = loadProductsFromFile();
-
-        if (!loadedProducts.isEmpty()) {
-            // Combine loaded products with existing products
-            List<Product> combinedProducts = new ArrayList<>(productList);
-            combinedProducts.addAll(loadedProducts);
-
-            // Sort the combinedProducts alphabetically by product ID
-            Collections.sort(combinedProducts, (p1, p2) -> p1.getProductId().compareTo(p2.getProductId()));
+        ProductRepository catalog = getCatalog();
 
+        if (!catalog.isEmpty()) {
             System.out.println("\n=== Product List ===");
-            for (Product product : combinedProducts) {
+            // Products alphabetically by product ID
+            for (Product product : catalog.sortedById(null)) {
                 System.out.println(product);
             }
+            System.out.println(catalogCache);
         } else {
             System.out.println("Loaded product list is empty.");
         }
     }
+    /**
+     * Imports products from a CSV or JSON file, writing the records that could not be imported
+     * to a report next to the file.
+     */
+    public void importProducts() {
+        Scanner scanner = new Scanner(System.in);
+        System.out.print("Enter the path of the CSV or JSON file: ");
+        Path file = Paths.get(scanner.nextLine().trim());
+        Path rejectReport = file.resolveSibling(file.getFileName() + ".rejects.csv");
+        try {
+            ProductImporter.Summary summary = new ProductImporter(this).importFile(file, rejectReport);
+            System.out.println(summary);
+            if (summary.getRejected() > 0) {
+                System.out.println("Rejected records are listed in " + rejectReport + ".");
+            }
+        } catch (IOException e) {
+            System.err.println("Error importing products: " + e.getMessage());
+        }
+    }
     public void saveProductsToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(FILE_PATH, true))) {
-            for (Product product : productList) {
-                if (product instanceof Electronics) {
-                    writer.write("Electronics:");
-                } else if (product instanceof Clothing) {
-                    writer.write("Clothing:");
+        try {
+            checkpoint();
+            System.out.println("Products saved to file.");
+        } catch (IOException e) {
+            System.err.println("Error saving product list to file: " + e.getMessage());
+        }
+    }
+    /**
+     * Rewrites productList.txt with one entry per product ID, dropping duplicates left behind
+     * by older versions that appended the whole list on every save.
+     */
+    public void compactProductFile() {
+        try {
+            long sizeBefore = Files.exists(productFile) ? Files.size(productFile) : 0;
+            checkpoint();
+            System.out.println("Product file compacted from " + sizeBefore + " to " + Files.size(productFile) + " bytes.");
+        } catch (IOException e) {
+            System.err.println("Error compacting product file: " + e.getMessage());
+        }
+    }
+    /**
+     * Adds a product to the catalog, or replaces the product with the same ID, and logs the change.
+     *
+     * @throws UncheckedIOException If the change could not be logged; the catalog is left as it was.
+     */
+    public void addProduct(Product product) {
+        CompletableFuture<Void> logged;
+        Product previous;
+        synchronized (this) {
+            previous = putProduct(getCatalog(), product);
+            logged = writeAheadLog.logAdd(product);
+        }
+        awaitLogged(logged, () -> undoAdd(product, previous));
+    }
+    /**
+     * Adds or replaces a batch of products and logs them, waiting for the log once for the whole batch.
+     * Products with new IDs are refused once the catalog holds {@code wsm.catalog.capacity} products.
+     *
+     * @param products The products, in order; a later product replaces an earlier one with the same ID.
+     * @return The products refused because the catalog is full.
+     * @throws UncheckedIOException If the batch could not be logged; none of it is left in the catalog.
+     */
+    public List<Product> addProducts(Collection<Product> products) {
+        List<Product> refused = new ArrayList<>();
+        // Each added product and the one it replaced, to undo the batch if it cannot be logged
+        List<Product[]> added = new ArrayList<>();
+        CompletableFuture<Void> logged = null;
+        synchronized (this) {
+            ProductRepository catalog = getCatalog();
+            for (Product product : products) {
+                if (catalog.size() >= CATALOG_CAPACITY && !catalog.contains(product.getProductId())) {
+                    refused.add(product);
+                    continue;
                 }
-                writer.write("\nProduct ID: " + product.getProductId());
-                writer.write("\nProduct Name: " + product.getProductName());
-                writer.write("\nAvailable Items: " + product.getAvailableItems());
-                writer.write("\nPrice: " + product.getPrice());
-                if (product instanceof Electronics electronics) {
-                    writer.write("\nBrand: " + electronics.getBrand());
-                    writer.write("\nWarranty Period: " + electronics.getWarrantyPeriod() + "\n");
-                } else if (product instanceof Clothing clothing) {
-                    writer.write("\nSize: " + clothing.getSize());
-                    writer.write("\nColor: " + clothing.getColor() + "\n");
+                Product previous = putProduct(catalog, product);
+                added.add(new Product[]{product, previous});
+                logged = writeAheadLog.logAdd(product);
+            }
+        }
+        if (logged != null) {
+            awaitLogged(logged, () -> {
+                for (int i = added.size() - 1; i >= 0; i--) {
+                    undoAdd(added.get(i)[0], added.get(i)[1]);
                 }
+            });
+        }
+        return refused;
+    }
+    /**
+     * Removes a product from the catalog and logs the change. Carts holding the product drop it.
+     *
+     * @return The removed product, or null if no product has that ID.
+     * @throws UncheckedIOException If the change could not be logged; the product is put back.
+     */
+    public Product removeProduct(String productId) {
+        Product removed;
+        CompletableFuture<Void> logged = null;
+        ShoppingService sessions;
+        synchronized (this) {
+            sessions = shoppingService;
+            removed = getCatalog().remove(productId);
+            if (removed != null) {
+                if (inventory != null) {
+                    inventory.productRemoved(productId);
+                }
+                logged = writeAheadLog.logDelete(productId);
             }
-            System.out.println("Products saved to file.");
+        }
+        // Outside the catalog lock: a checkout holds a cart's lock while it waits for this one
+        if (removed != null && inventory != null) {
+            inventory.dropReservations(productId);
+        }
+        // Carts holding the product would otherwise fail at checkout; a session's lock is also taken before the catalog's
+        if (removed != null && sessions != null) {
+            sessions.productRemoved(removed);
+        }
+        if (logged != null) {
+            awaitLogged(logged, () -> {
+                if (!getCatalog().contains(productId)) {
+                    getCatalog().add(removed);
+                }
+            });
+        }
+        return removed;
+    }
+    /**
+     * Sets the number of available items of a product and logs the change.
+     *
+     * @return False if no product has that ID.
+     * @throws UncheckedIOException If the change could not be logged; the stock is left as it was.
+     */
+    public boolean updateStock(String productId, int availableItems) {
+        CompletableFuture<Void> logged;
+        Product product;
+        int previousItems;
+        synchronized (this) {
+            product = getCatalog().findById(productId);
+            if (product == null) {
+                return false;
+            }
+            previousItems = product.getAvailableItems();
+            if (inventory != null) {
+                inventory.stockChanged(productId, previousItems, availableItems);
+            }
+            getCatalog().updateStock(productId, availableItems);
+            logged = writeAheadLog.logStockChange(productId, availableItems);
+        }
+        awaitLogged(logged, () -> {
+            // Only if nothing has changed the stock since
+            if (getCatalog().findById(productId) == product && product.getAvailableItems() == availableItems) {
+                if (inventory != null) {
+                    inventory.stockChanged(productId, availableItems, previousItems);
+                }
+                getCatalog().updateStock(productId, previousItems);
+            }
+        });
+        return true;
+    }
+    /**
+     * Adds to (or, with a negative amount, takes from) the available items of a product and logs the change.
+     * Used by {@link InventoryService} to commit items it has already reserved.
+     *
+     * @return False if no product has that ID, or it has fewer items than are being taken.
+     * @throws UncheckedIOException If the change could not be logged; the amount is given back.
+     */
+    public boolean adjustStock(String productId, int amount) {
+        CompletableFuture<Void> logged;
+        Product product;
+        synchronized (this) {
+            product = getCatalog().findById(productId);
+            if (product == null) {
+                return false;
+            }
+            int availableItems = product.getAvailableItems() + amount;
+            // Stock lowered by the manager below what carts had reserved is never oversold
+            if (availableItems < 0) {
+                return false;
+            }
+            getCatalog().updateStock(productId, availableItems);
+            logged = writeAheadLog.logStockChange(productId, availableItems);
+        }
+        awaitLogged(logged, () -> {
+            if (getCatalog().findById(productId) == product) {
+                getCatalog().updateStock(productId, product.getAvailableItems() - amount);
+            }
+        });
+        return true;
+    }
+    /**
+     * Sets the price of a product and logs the change.
+     *
+     * @return False if no product has that ID.
+     * @throws UncheckedIOException If the change could not be logged; the price is left as it was.
+     */
+    public boolean updatePrice(String productId, long price) {
+        CompletableFuture<Void> logged;
+        Product product;
+        long previousPrice;
+        synchronized (this) {
+            product = getCatalog().findById(productId);
+            if (product == null) {
+                return false;
+            }
+            previousPrice = product.getPrice();
+            getCatalog().updatePrice(productId, price);
+            logged = writeAheadLog.logPriceChange(productId, price);
+        }
+        awaitLogged(logged, () -> {
+            if (getCatalog().findById(productId) == product && product.getPrice() == price) {
+                getCatalog().updatePrice(productId, previousPrice);
+            }
+        });
+        return true;
+    }
+    /**
+     * Folds the write-ahead log into productList.txt: writes a snapshot of the catalog and empties the log.
+     * Changes wait while the checkpoint runs, so every logged change is in the snapshot, and the log is
+     * only emptied once the snapshot and its rename are on disk.
+     */
+    public synchronized void checkpoint() throws IOException {
+        long start = System.nanoTime();
+        writeAheadLog.flush();
+        writeSnapshot();
+        writeAheadLog.truncate();
+        CHECKPOINT_TIME.recordSince(start);
+    }
+    // Waits outside the catalog lock so changes from several threads share one disk flush. A change that
+    // could not be logged would be lost on restart, so it is undone and the caller is told
+    private void awaitLogged(CompletableFuture<Void> logged, Runnable undo) {
+        try {
+            logged.join();
+        } catch (CompletionException e) {
+            synchronized (this) {
+                undo.run();
+            }
+            Throwable cause = e.getCause();
+            throw new UncheckedIOException("Could not write the change to the write-ahead log",
+                    cause instanceof IOException ? (IOException) cause : new IOException(cause));
+        }
+    }
+    // Puts a product in the catalog in place of the one with the same ID, returning that one. Stock reserved
+    // from the old product stays reserved; only the difference becomes available. The reservation counter
+    // is moved before the catalog changes, so a counter being created at the same time starts from the old
+    // stock and then gets the difference, and never sees the new stock and the difference on top of it
+    private Product putProduct(ProductRepository catalog, Product product) {
+        Product previous = catalog.findById(product.getProductId());
+        if (previous != null && inventory != null) {
+            inventory.stockChanged(product.getProductId(), previous.getAvailableItems(), product.getAvailableItems());
+        }
+        catalog.add(product);
+        return previous;
+    }
+    // Puts back the product an add replaced, unless the product has been changed again since
+    private void undoAdd(Product product, Product previous) {
+        String productId = product.getProductId();
+        if (getCatalog().findById(productId) != product) {
+            return;
+        }
+        if (previous != null) {
+            putProduct(getCatalog(), previous);
+        } else {
+            getCatalog().remove(productId);
+        }
+    }
+    /**
+     * Writes a full snapshot of the catalog to a temporary file and renames it over productList.txt,
+     * so the file is never left half-written.
+     * <p>
+     * A catalog that could not be read completely is never written over the file it came from: if the
+     * file or its log could not be read the snapshot is refused, and if records were skipped the old file
+     * is first copied aside so the skipped records can still be repaired by hand.
+     */
+    private void writeSnapshot() throws IOException {
+        ProductRepository catalog = getCatalog();
+        Path target = productFile.toAbsolutePath();
+        if (loadFailure != null) {
+            throw new IOException("Not overwriting " + productFile + " because it could not be loaded ("
+                    + loadFailure + "); fix the file and reload it");
+        }
+        if (skippedRecordsOnLoad && Files.exists(target)) {
+            Path backup = target.resolveSibling(target.getFileName() + "." + System.currentTimeMillis() + ".bak");
+            Files.copy(target, backup, StandardCopyOption.REPLACE_EXISTING);
+            System.err.println("Kept a copy of " + productFile + " with its invalid products in " + backup);
+            skippedRecordsOnLoad = false;
+        }
+        Path tempFile = Files.createTempFile(target.getParent(), "productList", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+                 BufferedWriter writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), 1 << 16)) {
+                for (Product product : catalog) {
+                    ProductTextFormat.writeProduct(writer, product);
+                }
+                // The snapshot must be on disk before the rename, or a crash could leave an empty file in its place
+                writer.flush();
+                channel.force(true);
+            }
+            try {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            forceDirectory(target.getParent());
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        writeBinaryCatalog(catalog, Files.size(target), Files.getLastModifiedTime(target).toMillis());
+        // The file now matches what is in memory, so there is nothing to re-read
+        catalogCache.markCurrent();
+    }
+    // Makes the rename durable before the log is emptied; not every platform can open a directory for this
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
         } catch (IOException e) {
-            System.err.println("Error saving product list to file: " + e.getMessage());
+            // Windows cannot open directories; there the rename itself is durable once it returns
+        }
+    }
+    /**
+     * Stops the background checkpoints, the reservation reaper and the shopping sessions' executor, and
+     * closes the write-ahead log, releasing the product file to other managers. Changes still in the log
+     * are replayed the next time the catalog is loaded.
+     */
+    @Override
+    public void close() throws IOException {
+        checkpointer.shutdown();
+        // Waits for a running checkpoint, which holds the same lock
+        synchronized (this) {
+            if (shoppingService != null) {
+                shoppingService.close();
+            }
+            if (inventory != null) {
+                inventory.close();
+            }
+            writeAheadLog.close();
+        }
+    }
+    public void loadProductsFromTextFile() {
+        int size;
+        synchronized (this) {
+            // Drop the cached catalog so the next read parses productList.txt and replays the log again
+            catalogCache.invalidate();
+            size = getCatalog().size();
         }
+        System.out.println(size + " products loaded from " + productFile + ".");
     }
     public List<Product> loadProductsFromFile() {
-        List<Product> loadedProducts = new ArrayList<>();
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(FILE_PATH))) {
-            String line;
-
-            while ((line = reader.readLine()) != null) {
-                if (line.equals("Electronics:")) {
-                    loadedProducts.add(readElectronics(reader));
-                } else if (line.equals("Clothing:")) {
-                    loadedProducts.add(readClothing(reader));
+        // Serve from memory; callers get their own list so they can sort or filter it
+        return new ArrayList<>(getCatalog().getAll());
+    }
+    /**
+     * Returns the indexed products in the product file, served from the catalog cache.
+     */
+    public ProductRepository getCatalog() {
+        ProductRepository current = catalogCache.getIfCurrent();
+        if (current != null) {
+            return current;
+        }
+        // Changes hold this lock from changing the catalog until their record is appended to the log, so
+        // reloading under it means every change is either in the replayed log or made to the new catalog
+        synchronized (this) {
+            return catalogCache.getProducts();
+        }
+    }
+    /**
+     * Finds a product in the catalog by ID.
+     */
+    public Product findProductById(String productId) {
+        return getCatalog().findById(productId);
+    }
+    /**
+     * Streams the products in productList.txt straight from disk, one at a time, in file order.
+     * Changes still in the write-ahead log are not included. Close the stream when done with it.
+     */
+    public Stream<Product> streamProductsFromFile() throws IOException {
+        return ProductFileReader.stream(productFile);
+    }
+    public ProductCatalogCache getCatalogCache() {
+        return catalogCache;
+    }
+    /**
+     * Returns the service that reserves stock for shopping carts, creating it the first time.
+     */
+    public synchronized InventoryService getInventory() {
+        if (inventory == null) {
+            inventory = new InventoryService(this, Duration.ofSeconds(RESERVATION_TTL_SECONDS));
+        }
+        return inventory;
+    }
+    /**
+     * Returns the service that holds the shoppers' sessions, creating it the first time.
+     */
+    public synchronized ShoppingService getShoppingService() {
+        if (shoppingService == null) {
+            shoppingService = new ShoppingService(this);
+        }
+        return shoppingService;
+    }
+    /**
+     * Returns the orders placed by each user, loading them the first time.
+     */
+    public synchronized OrderHistory getOrderHistory() {
+        if (orderHistory == null) {
+            orderHistory = new OrderHistory(ordersFile);
+        }
+        return orderHistory;
+    }
+    private ProductRepository readProductsFromFile() {
+        long start = System.nanoTime();
+        ProductRepository loadedProducts = parseProductFile();
+        long elapsed = System.nanoTime() - start;
+
+        LOAD_TIME.record(elapsed);
+        LOADED_RECORDS.add(loadedProducts.size());
+        loadRecordsPerSecond = (long) (loadedProducts.size() * 1e9 / Math.max(1, elapsed));
+        return loadedProducts;
+    }
+    private ProductRepository parseProductFile() {
+        ProductRepository loadedProducts = new ProductRepository();
+        loadFailure = null;
+        skippedRecordsOnLoad = false;
+
+        try {
+            if (Files.exists(productFile)) {
+                // Stamped before reading, so a change made while reading leaves the binary copy out of date
+                long size = Files.size(productFile);
+                long modified = Files.getLastModifiedTime(productFile).toMillis();
+                ProductRepository binaryProducts = readBinaryCatalog();
+                if (binaryProducts != null) {
+                    loadedProducts = binaryProducts;
+                } else {
+                    if (size >= PARALLEL_LOAD_THRESHOLD) {
+                        loadProductsInParallel(productFile, loadedProducts);
+                    } else {
+                        try (Stream<Product> products = ProductFileReader.stream(productFile, this::skippedRecord)) {
+                            products.forEach(loadedProducts::add);
+                        }
+                    }
+                    // A copy missing the skipped records would hide them from the next load
+                    if (!skippedRecordsOnLoad) {
+                        writeBinaryCatalog(loadedProducts, size, modified);
+                    }
                 }
+                System.out.println("Products loaded from file.");
             }
-            System.out.println("Products loaded from file.");
-        } catch (IOException e) {
+        } catch (IOException | UncheckedIOException e) {
+            loadFailure = e.getMessage();
             System.err.println("An error occurred trying to load from file: " + e.getMessage());
         }
-        return loadedProducts;
+
+        return replayWriteAheadLog(loadedProducts);
     }
-    private Electronics readElectronics(BufferedReader reader) throws IOException {
-        // Read values for Electronics attributes
-        String productId = readValue(reader, "Product ID:");
-        String productName = readValue(reader, "Product Name:");
-        int availableItems = Integer.parseInt(readValue(reader, "Available Items:"));
-        double price = Double.parseDouble(readValue(reader, "Price:"));
-        String brand = readValue(reader, "Brand:");
-        int warrantyPeriod = Integer.parseInt(readValue(reader, "Warranty Period:"));
-
-        // Create and return an Electronics object
-        return new Electronics(productId, productName, availableItems, price, brand, warrantyPeriod);
-    }
-    private Clothing readClothing(BufferedReader reader) throws IOException {
-        // Read values for Clothing attributes
-        String productId = readValue(reader, "Product ID:");
-        String productName = readValue(reader, "Product Name:");
-        int availableItems = Integer.parseInt(readValue(reader, "Available Items:"));
-        double price = Double.parseDouble(readValue(reader, "Price:"));
-        String size = readValue(reader, "Size:");
-        String color = readValue(reader, "Color:");
-
-        // Create and return a Clothing object
-        return new Clothing(productId, productName, availableItems, price, size, color);
-    }
-    private String readValue(BufferedReader reader, String attribute) throws IOException {
-        // Read a line from the file
-        String line = reader.readLine();
-
-        // Check if the line starts with the expected attribute
-        if (line != null && line.startsWith(attribute)) {
-            // Remove the attribute and trim the value
-            return line.substring(attribute.length()).trim();
-        } else {
-            throw new IOException("Invalid file format. Expected attribute: " + attribute);
+    // The products in the binary copy of the product file, or null if there is none or it is out of date
+    private ProductRepository readBinaryCatalog() {
+        if (!Files.exists(binaryFile)) {
+            return null;
+        }
+        try {
+            BinaryCatalog catalog = BinaryCatalog.open(binaryFile);
+            return catalog.isCurrentFor(productFile) ? catalog.readAll() : null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring " + binaryFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+    // The binary copy only speeds up loading, so failing to write it is not an error
+    private void writeBinaryCatalog(ProductRepository products, long sourceSize, long sourceModified) {
+        try {
+            BinaryCatalog.write(binaryFile, products.getAll(), sourceSize, sourceModified);
+        } catch (IOException e) {
+            System.err.println("Could not write " + binaryFile + ": " + e.getMessage());
+        }
+    }
+    private void loadProductsInParallel(Path path, ProductRepository loadedProducts) throws IOException {
+        ParallelProductFileParser.Result result = new ParallelProductFileParser().parse(path);
+        for (Product product : result.getProducts()) {
+            loadedProducts.add(product);
         }
+        for (ParallelProductFileParser.ParseError error : result.getErrors()) {
+            skippedRecord("byte " + error.getByteOffset() + ": " + error.getMessage());
+        }
+    }
+    private void skippedRecord(String error) {
+        skippedRecordsOnLoad = true;
+        System.err.println("Skipped invalid product in " + productFile + " at " + error);
+    }
+    private ProductRepository replayWriteAheadLog(ProductRepository loadedProducts) {
+        // Reapply the changes made since the last checkpoint
+        try {
+            writeAheadLog.replay(loadedProducts);
+        } catch (IOException e) {
+            loadFailure = e.getMessage();
+            System.err.println("An error occurred trying to replay the write-ahead log: " + e.getMessage());
+        }
+        return loadedProducts;
     }
-}
+}
\ No newline at end of file